@@ -0,0 +1,112 @@
+package shivanhunter.voxelgame;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.GdxNativesLoader;
+
+/**
+ * Helpers shared by the benchmark drivers in this source set. They run
+ * without a window or a GL context, so they can be run from the command
+ * line (see the bench tasks in core/build.gradle).
+ */
+public class Benchmarks {
+	/**
+	 * Sets up libGDX to run without a backend, rendering through
+	 * HeadlessGL20 and reading files through HeadlessFiles, and loads the
+	 * deco models. Should be run from the assets directory.
+	 */
+	public static void loadDecoModels() {
+		GdxNativesLoader.load();
+		Gdx.gl = Gdx.gl20 = new HeadlessGL20();
+		Gdx.files = new HeadlessFiles();
+
+		// libGDX only uses the Application as a key for managed resources
+		Gdx.app = (Application)Proxy.newProxyInstance(Application.class.getClassLoader(),
+				new Class<?>[] { Application.class }, new InvocationHandler() {
+			@Override public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+				if (method.getName().equals("equals")) return proxy == args[0];
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+
+		Region.loadDecoModels();
+	}
+
+	/**
+	 * Generates a Region and the eight Regions around it, as the Map would
+	 * before meshing it.
+	 *
+	 * @param x the center Region's x coordinate
+	 * @param z the center Region's z coordinate
+	 * @param seed the seed to generate the Regions with
+	 * @return the Neighborhood of the center Region
+	 * @throws InterruptedException if generation was interrupted
+	 */
+	public static Neighborhood generateNeighborhood(int x, int z, long seed)
+			throws InterruptedException {
+		Region[][] regions = new Region[3][3];
+		for (int i = 0; i < 3; ++i) {
+			for (int j = 0; j < 3; ++j) {
+				regions[i][j] = new Region(x + i-1, z + j-1, seed, 0);
+			}
+		}
+
+		// north is positive z and east is positive x, listed clockwise
+		return new Neighborhood(regions[1][1],
+				regions[1][2], regions[2][2], regions[2][1], regions[2][0],
+				regions[1][0], regions[0][0], regions[0][1], regions[0][2]);
+	}
+
+	// the JVM's count of bytes allocated by each thread
+	private static final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	// bytes the JVM allocates while answering getThreadAllocatedBytes(), and
+	// the number of times it has been asked by getAllocatedBytes()
+	private static final long measurementBytes = findMeasurementBytes();
+	private static long measurements;
+
+	/**
+	 * Gets the number of bytes the current thread has allocated so far, not
+	 * counting what measuring it allocated. Only JVMs with HotSpot's
+	 * ThreadMXBean extension can measure this.
+	 *
+	 * @return the bytes allocated by the current thread
+	 */
+	public static long getAllocatedBytes() {
+		long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		return bytes - measurementBytes*measurements++;
+	}
+
+	/**
+	 * Finds how many bytes a getThreadAllocatedBytes() call allocates. Some
+	 * JVMs wrap the thread ID in an array, which would otherwise be counted
+	 * against whatever is being measured.
+	 *
+	 * @return the bytes allocated by one call
+	 */
+	private static long findMeasurementBytes() {
+		long id = Thread.currentThread().getId();
+		long fewest = Long.MAX_VALUE;
+		for (int i = 0; i < 100; ++i) {
+			long start = threads.getThreadAllocatedBytes(id);
+			fewest = Math.min(fewest, threads.getThreadAllocatedBytes(id) - start);
+		}
+		return fewest;
+	}
+
+	/**
+	 * Gets the CPU time the current thread has used so far, in nanoseconds.
+	 *
+	 * @return the current thread's CPU time
+	 */
+	public static long getCpuTime() {
+		return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+	}
+}
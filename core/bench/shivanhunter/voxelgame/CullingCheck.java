@@ -0,0 +1,230 @@
+package shivanhunter.voxelgame;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.GdxNativesLoader;
+
+/**
+ * Checks the culling code against slow but obvious versions of it.
+ *
+ * SectionVisibility.findConnections() is compared with a flood fill one
+ * cell at a time, for every section of several generated Neighborhoods, and
+ * for sections of their center Regions filled with random blocks at several
+ * densities, which have far more small pockets of air than terrain does.
+ *
+ * Region.isBoxInFrustum() is checked from random cameras against points
+ * sampled throughout each box: if any point is inside the frustum, the box
+ * must be too. Boxes it keeps with no sampled point inside are only
+ * counted, since the test is allowed to keep boxes near the frustum's
+ * corners.
+ *
+ * Exits with status 1 if anything doesn't match. Arguments are an optional
+ * number of random sections (200 by default) and random cameras (1000 by
+ * default).
+ */
+public class CullingCheck {
+	private static final long[] SEEDS = { 1, 42, 1234567 };
+	private static final int[][] POSITIONS = { { 0, 0 }, { 5, -3 }, { -10, 12 } };
+
+	// chances of a random block being opaque
+	private static final float[] DENSITIES = { .3f, .5f, .6f, .7f };
+
+	// render distance of the random cameras, in Regions
+	private static final int RANGE = 4;
+
+	// points sampled along each axis of a box
+	private static final int SAMPLES = 9;
+
+	public static void main(String[] args) throws InterruptedException {
+		int randomSections = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int cameras = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		Random random = new Random(0);
+		int failures = 0;
+
+		// generated terrain, then random blocks in the center Region
+		int sections = 0;
+		for (long seed : SEEDS) {
+			for (int[] position : POSITIONS) {
+				Neighborhood n = Benchmarks.generateNeighborhood(position[0], position[1], seed);
+				for (int section = 0; section < Region.SECTIONS; ++section) {
+					failures += checkConnections(n, section, "seed " + seed + ", region (" +
+							position[0] + ", " + position[1] + ")");
+					sections++;
+				}
+			}
+		}
+
+		Neighborhood n = Benchmarks.generateNeighborhood(0, 0, SEEDS[0]);
+		for (int i = 0; i < randomSections; ++i) {
+			float density = DENSITIES[i % DENSITIES.length];
+			int section = random.nextInt(Region.SECTIONS);
+			fillSection(n.getRegion(0, 0), section, density, random);
+			failures += checkConnections(n, section, "random blocks, density " + density);
+			sections++;
+		}
+		System.out.println("findConnections: " + sections + " sections checked");
+
+		GdxNativesLoader.load();
+		int boxes = 0, kept = 0, keptOutside = 0;
+		PerspectiveCamera cam = new PerspectiveCamera(85, 800, 600);
+		cam.near = .125f;
+		cam.far = RANGE*Region.WIDTH;
+		Vector3 point = new Vector3();
+
+		for (int i = 0; i < cameras; ++i) {
+			cam.position.set(random.nextFloat()*Region.WIDTH, random.nextFloat()*Region.HEIGHT,
+					random.nextFloat()*Region.WIDTH);
+			cam.direction.set(random.nextFloat()*2 - 1, random.nextFloat()*2 - 1,
+					random.nextFloat()*2 - 1).nor();
+			cam.up.set(Vector3.Y);
+			cam.update();
+
+			for (int x = -RANGE; x <= RANGE; ++x) {
+				for (int z = -RANGE; z <= RANGE; ++z) {
+					int bottom = random.nextInt(Region.SECTIONS)*Region.SECTION_HEIGHT;
+					int top = bottom + (random.nextInt(Region.SECTIONS - bottom/Region.SECTION_HEIGHT) + 1)*
+							Region.SECTION_HEIGHT;
+
+					boolean inside = false;
+					for (int a = 0; a < SAMPLES && !inside; ++a) {
+						for (int b = 0; b < SAMPLES && !inside; ++b) {
+							for (int c = 0; c < SAMPLES && !inside; ++c) {
+								point.set(x*Region.WIDTH + (float)a/(SAMPLES-1)*Region.WIDTH,
+										bottom + (float)b/(SAMPLES-1)*(top - bottom),
+										z*Region.WIDTH + (float)c/(SAMPLES-1)*Region.WIDTH);
+								inside = cam.frustum.pointInFrustum(point);
+							}
+						}
+					}
+
+					boolean result = Region.isBoxInFrustum(cam.frustum, x, z, bottom, top);
+					boxes++;
+					if (result) kept++;
+					if (result && !inside) keptOutside++;
+					if (inside && !result) {
+						System.out.println("isBoxInFrustum culled a visible box: Region (" + x + ", " +
+								z + ") from " + bottom + " to " + top + ", camera at " + cam.position +
+								" facing " + cam.direction);
+						failures++;
+					}
+				}
+			}
+		}
+		System.out.println("isBoxInFrustum: " + boxes + " boxes checked, " + kept + " kept, " +
+				keptOutside + " of them with no sampled point inside");
+
+		System.out.println(failures == 0 ? "no mismatches" : failures + " mismatches");
+		System.exit(failures > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Compares findConnections() with connectionsByCell() for a section of a
+	 * Neighborhood's center Region, and prints any difference.
+	 *
+	 * @param n the Neighborhood to copy
+	 * @param section the section to check
+	 * @param description what the Neighborhood holds, for the message
+	 * @return 1 if the connections differ, or 0 if they match
+	 */
+	private static int checkConnections(Neighborhood n, int section, String description) {
+		NeighborhoodSnapshot blocks = NeighborhoodSnapshot.get();
+		blocks.copy(n);
+
+		int bottom = section*Region.SECTION_HEIGHT;
+		long expected = connectionsByCell(blocks, bottom);
+		long actual = SectionVisibility.findConnections(blocks, bottom);
+		if (expected == actual) return 0;
+
+		System.out.println("findConnections differs for section " + section + ", " + description +
+				": " + Long.toBinaryString(actual) + " instead of " + Long.toBinaryString(expected));
+		return 1;
+	}
+
+	/**
+	 * Finds which faces of a section are connected through non-opaque cells
+	 * by flood filling one cell at a time, checking every neighbor of every
+	 * cell.
+	 *
+	 * @param blocks the snapshot of the section's Neighborhood
+	 * @param bottom the lowest height of the section
+	 * @return bitmask of the connected pairs of faces (see
+	 *         SectionVisibility.ALL_CONNECTED)
+	 */
+	private static long connectionsByCell(NeighborhoodSnapshot blocks, int bottom) {
+		int width = Region.WIDTH, height = Region.SECTION_HEIGHT;
+		boolean[][][] visited = new boolean[width][height][width];
+		ArrayDeque<int[]> queue = new ArrayDeque<int[]>();
+		long connections = 0;
+
+		for (int x = 0; x < width; ++x) {
+			for (int y = 0; y < height; ++y) {
+				for (int z = 0; z < width; ++z) {
+					if (visited[x][y][z] || Region.isOpaque(blocks.get(x, bottom + y, z))) continue;
+
+					int faces = 0;
+					visited[x][y][z] = true;
+					queue.add(new int[] { x, y, z });
+
+					while (!queue.isEmpty()) {
+						int[] cell = queue.poll();
+						int[] next = new int[3];
+						for (int axis = 0; axis < 3; ++axis) {
+							int size = axis == 1 ? height : width;
+							for (int step = -1; step <= 1; step += 2) {
+								int face = axis*2 + (step > 0 ? 1 : 0);
+
+								System.arraycopy(cell, 0, next, 0, 3);
+								next[axis] += step;
+								if (next[axis] < 0 || next[axis] >= size) {
+									faces |= 1 << face;
+									continue;
+								}
+
+								if (visited[next[0]][next[1]][next[2]] ||
+										Region.isOpaque(blocks.get(next[0], bottom + next[1], next[2]))) {
+									continue;
+								}
+								visited[next[0]][next[1]][next[2]] = true;
+								queue.add(next.clone());
+							}
+						}
+					}
+
+					for (int a = 0; a < SectionVisibility.FACES; ++a) {
+						if ((faces & (1 << a)) == 0) continue;
+						for (int b = 0; b < SectionVisibility.FACES; ++b) {
+							if ((faces & (1 << b)) != 0) {
+								connections |= 1L << (a*SectionVisibility.FACES + b);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		return connections;
+	}
+
+	/**
+	 * Fills a section of a Region with random blocks, each opaque with the
+	 * given chance and air otherwise.
+	 *
+	 * @param r the Region to fill
+	 * @param section the section to fill
+	 * @param density the chance of each block being opaque
+	 * @param random the source of the blocks
+	 */
+	private static void fillSection(Region r, int section, float density, Random random) {
+		for (int x = 0; x < Region.WIDTH; ++x) {
+			for (int y = 0; y < Region.SECTION_HEIGHT; ++y) {
+				for (int z = 0; z < Region.WIDTH; ++z) {
+					r.set(x, section*Region.SECTION_HEIGHT + y, z,
+							(byte)(random.nextFloat() < density ? 1 : 0));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package shivanhunter.voxelgame;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+import com.badlogic.gdx.graphics.g3d.Environment;
+import com.badlogic.gdx.graphics.g3d.ModelBatch;
+import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * Measures how many bytes the main thread allocates per frame once the Map
+ * has finished loading, rendering through HeadlessGL20. Each frame does what
+ * World.render() does for the Map: it updates the player's Region and
+ * motion, renders the Map in a ModelBatch and appends the Map's debug info
+ * to a reused StringBuilder. The camera stays in the middle of Region (0, 0)
+ * and turns a full circle every few seconds, so culling and the render list
+ * keep changing. Mobs and the debug text's font are left out, since they
+ * need a window.
+ *
+ * A steady frame should allocate nothing at all, so this exits with status
+ * 1 if any bytes were allocated, and can be used as a check.
+ *
+ * Arguments are an optional render distance (12 by default) and an optional
+ * number of frames to measure (1000 by default).
+ */
+public class FrameAllocationBenchmark {
+	// frames to run after the Map has settled, for deco layers to load and
+	// the JIT to settle
+	private static final int WARMUP_FRAMES = 5000;
+
+	// frames for a full turn of the camera
+	private static final int TURN_FRAMES = 360;
+
+	// how long to wait for the Map to settle before giving up
+	private static final long LOAD_TIMEOUT = 600000;
+
+	public static void main(String[] args) {
+		int range = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+		int frames = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+		Benchmarks.loadDecoModels();
+
+		// as in World.create()
+		Color fogColor = new Color(.0f, .25f, .75f, 1);
+		ModelBatch batch = Region.PACKED_VERTICES ?
+				new ModelBatch(new TerrainShaderProvider()) : new ModelBatch();
+		Environment environment = new Environment();
+		environment.set(new ColorAttribute(ColorAttribute.AmbientLight, 0.75f, 0.75f, 0.75f, 1f));
+		environment.set(new ColorAttribute(ColorAttribute.Fog, fogColor));
+
+		Map map = new Map(42, range);
+
+		// World's field of view, in an 800x600 window
+		PerspectiveCamera cam = new PerspectiveCamera(85, 800, 600);
+		cam.near = .125f;
+		cam.far = range*Region.WIDTH;
+		cam.position.set(Region.WIDTH/2, Region.HEIGHT/2, Region.WIDTH/2);
+
+		StringBuilder debugText = new StringBuilder();
+		Vector3 velocity = new Vector3();
+
+		long deadline = System.currentTimeMillis() + LOAD_TIMEOUT;
+		int frame = 0;
+		while (!map.isSettled() || frame < TURN_FRAMES) {
+			if (System.currentTimeMillis() > deadline) {
+				System.out.println("the Map did not finish loading");
+				System.exit(1);
+			}
+			renderFrame(map, batch, environment, cam, velocity, debugText, frame++);
+			Thread.yield();
+		}
+		for (int i = 0; i < WARMUP_FRAMES; ++i) {
+			renderFrame(map, batch, environment, cam, velocity, debugText, frame++);
+		}
+
+		long bytes = Benchmarks.getAllocatedBytes();
+		long time = System.nanoTime();
+		for (int i = 0; i < frames; ++i) {
+			renderFrame(map, batch, environment, cam, velocity, debugText, frame++);
+		}
+		time = System.nanoTime() - time;
+		bytes = Benchmarks.getAllocatedBytes() - bytes;
+
+		System.out.print(debugText);
+		System.out.println("range " + range + ": " + bytes/frames + " bytes allocated per frame (" +
+				bytes + " over " + frames + " frames), " + time/frames/1000 + " us per frame");
+
+		map.dispose();
+		batch.dispose();
+		System.exit(bytes > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Renders one frame the way World.render() does, without the mobs or the
+	 * debug text's font.
+	 */
+	private static void renderFrame(Map map, ModelBatch batch, Environment environment,
+			PerspectiveCamera cam, Vector3 velocity, StringBuilder debugText, int frame) {
+		map.setPlayerRegion(Region.getRegionAt(cam.position.x), Region.getRegionAt(cam.position.z));
+
+		float angle = (float)frame/TURN_FRAMES*360;
+		cam.direction.set(1, -.25f, 0).nor().rotate(Vector3.Y, angle);
+		cam.up.set(Vector3.Y);
+		cam.update();
+
+		map.setPlayerMotion(velocity, cam.direction);
+
+		Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT | GL20.GL_DEPTH_BUFFER_BIT);
+
+		batch.begin(cam);
+		map.render(environment, batch);
+		batch.end();
+
+		debugText.setLength(0);
+		map.appendDebugInfo(debugText);
+	}
+}
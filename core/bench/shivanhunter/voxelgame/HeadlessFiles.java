@@ -0,0 +1,59 @@
+package shivanhunter.voxelgame;
+
+import com.badlogic.gdx.Files;
+import com.badlogic.gdx.files.FileHandle;
+
+/**
+ * A Files for running without a backend. Internal files are read from the
+ * working directory, falling back to the classpath as on the desktop, so the
+ * benchmarks should be run from the assets directory. There is no external
+ * or local storage.
+ */
+public class HeadlessFiles implements Files {
+	@Override public FileHandle getFileHandle(String path, FileType type) {
+		return new HeadlessFileHandle(path, type);
+	}
+
+	@Override public FileHandle classpath(String path) {
+		return getFileHandle(path, FileType.Classpath);
+	}
+
+	@Override public FileHandle internal(String path) {
+		return getFileHandle(path, FileType.Internal);
+	}
+
+	@Override public FileHandle external(String path) {
+		return getFileHandle(path, FileType.External);
+	}
+
+	@Override public FileHandle absolute(String path) {
+		return getFileHandle(path, FileType.Absolute);
+	}
+
+	@Override public FileHandle local(String path) {
+		return getFileHandle(path, FileType.Local);
+	}
+
+	@Override public String getExternalStoragePath() {
+		return "";
+	}
+
+	@Override public boolean isExternalStorageAvailable() {
+		return false;
+	}
+
+	@Override public String getLocalStoragePath() {
+		return "";
+	}
+
+	@Override public boolean isLocalStorageAvailable() {
+		return false;
+	}
+
+	// FileHandle's constructor taking a type is protected
+	private static class HeadlessFileHandle extends FileHandle {
+		public HeadlessFileHandle(String path, FileType type) {
+			super(path, type);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package shivanhunter.voxelgame;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import com.badlogic.gdx.graphics.GL20;
+
+/**
+ * A GL20 that does nothing, for running the game's rendering code without a
+ * GL context. Shaders always compile and link, every object it is asked to
+ * create gets the name 1, and no attribute or uniform is found, so shaders
+ * skip setting them.
+ *
+ * Nothing here allocates, so the allocations measured while rendering
+ * through it are the game's and libGDX's own.
+ */
+public class HeadlessGL20 implements GL20 {
+	@Override public void glActiveTexture(int arg0) {}
+	@Override public void glAttachShader(int arg0, int arg1) {}
+	@Override public void glBindAttribLocation(int arg0, int arg1, String arg2) {}
+	@Override public void glBindBuffer(int arg0, int arg1) {}
+	@Override public void glBindFramebuffer(int arg0, int arg1) {}
+	@Override public void glBindRenderbuffer(int arg0, int arg1) {}
+	@Override public void glBindTexture(int arg0, int arg1) {}
+	@Override public void glBlendColor(float arg0, float arg1, float arg2, float arg3) {}
+	@Override public void glBlendEquation(int arg0) {}
+	@Override public void glBlendEquationSeparate(int arg0, int arg1) {}
+	@Override public void glBlendFunc(int arg0, int arg1) {}
+	@Override public void glBlendFuncSeparate(int arg0, int arg1, int arg2, int arg3) {}
+	@Override public void glBufferData(int arg0, int arg1, Buffer arg2, int arg3) {}
+	@Override public void glBufferSubData(int arg0, int arg1, int arg2, Buffer arg3) {}
+	@Override public int glCheckFramebufferStatus(int arg0) { return 1; }
+	@Override public void glClear(int arg0) {}
+	@Override public void glClearColor(float arg0, float arg1, float arg2, float arg3) {}
+	@Override public void glClearDepthf(float arg0) {}
+	@Override public void glClearStencil(int arg0) {}
+	@Override public void glColorMask(boolean arg0, boolean arg1, boolean arg2, boolean arg3) {}
+	@Override public void glCompileShader(int arg0) {}
+	@Override public void glCompressedTexImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, Buffer arg7) {}
+	@Override public void glCompressedTexSubImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, Buffer arg8) {}
+	@Override public void glCopyTexImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7) {}
+	@Override public void glCopyTexSubImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7) {}
+	@Override public int glCreateProgram() { return 1; }
+	@Override public int glCreateShader(int arg0) { return 1; }
+	@Override public void glCullFace(int arg0) {}
+	@Override public void glDeleteBuffers(int arg0, IntBuffer arg1) {}
+	@Override public void glDeleteFramebuffers(int arg0, IntBuffer arg1) {}
+	@Override public void glDeleteProgram(int arg0) {}
+	@Override public void glDeleteRenderbuffers(int arg0, IntBuffer arg1) {}
+	@Override public void glDeleteShader(int arg0) {}
+	@Override public void glDeleteTextures(int arg0, IntBuffer arg1) {}
+	@Override public void glDepthFunc(int arg0) {}
+	@Override public void glDepthMask(boolean arg0) {}
+	@Override public void glDepthRangef(float arg0, float arg1) {}
+	@Override public void glDetachShader(int arg0, int arg1) {}
+	@Override public void glDisable(int arg0) {}
+	@Override public void glDisableVertexAttribArray(int arg0) {}
+	@Override public void glDrawArrays(int arg0, int arg1, int arg2) {}
+	@Override public void glDrawElements(int arg0, int arg1, int arg2, int arg3) {}
+	@Override public void glDrawElements(int arg0, int arg1, int arg2, Buffer arg3) {}
+	@Override public void glEnable(int arg0) {}
+	@Override public void glEnableVertexAttribArray(int arg0) {}
+	@Override public void glFinish() {}
+	@Override public void glFlush() {}
+	@Override public void glFramebufferRenderbuffer(int arg0, int arg1, int arg2, int arg3) {}
+	@Override public void glFramebufferTexture2D(int arg0, int arg1, int arg2, int arg3, int arg4) {}
+	@Override public void glFrontFace(int arg0) {}
+	@Override public void glGenBuffers(int arg0, IntBuffer arg1) { arg1.put(arg1.position(), 1); }
+	@Override public void glGenFramebuffers(int arg0, IntBuffer arg1) { arg1.put(arg1.position(), 1); }
+	@Override public void glGenRenderbuffers(int arg0, IntBuffer arg1) { arg1.put(arg1.position(), 1); }
+	@Override public void glGenTextures(int arg0, IntBuffer arg1) { arg1.put(arg1.position(), 1); }
+	@Override public void glGenerateMipmap(int arg0) {}
+	@Override public String glGetActiveAttrib(int arg0, int arg1, IntBuffer arg2, Buffer arg3) { return ""; }
+	@Override public String glGetActiveUniform(int arg0, int arg1, IntBuffer arg2, Buffer arg3) { return ""; }
+	@Override public void glGetAttachedShaders(int arg0, int arg1, Buffer arg2, IntBuffer arg3) {}
+	@Override public int glGetAttribLocation(int arg0, String arg1) { return -1; }
+	@Override public void glGetBooleanv(int arg0, Buffer arg1) {}
+	@Override public void glGetBufferParameteriv(int arg0, int arg1, IntBuffer arg2) {}
+	@Override public int glGetError() { return GL_NO_ERROR; }
+	@Override public void glGetFloatv(int arg0, FloatBuffer arg1) {}
+	@Override public void glGetFramebufferAttachmentParameteriv(int arg0, int arg1, int arg2, IntBuffer arg3) {}
+	@Override public void glGetIntegerv(int arg0, IntBuffer arg1) { arg1.put(arg1.position(), 8); }
+	@Override public String glGetProgramInfoLog(int arg0) { return ""; }
+	@Override public void glGetProgramiv(int arg0, int arg1, IntBuffer arg2) { succeed(arg1, arg2); }
+	@Override public void glGetRenderbufferParameteriv(int arg0, int arg1, IntBuffer arg2) {}
+	@Override public String glGetShaderInfoLog(int arg0) { return ""; }
+	@Override public void glGetShaderPrecisionFormat(int arg0, int arg1, IntBuffer arg2, IntBuffer arg3) {}
+	@Override public void glGetShaderiv(int arg0, int arg1, IntBuffer arg2) { succeed(arg1, arg2); }
+	@Override public String glGetString(int arg0) { return ""; }
+	@Override public void glGetTexParameterfv(int arg0, int arg1, FloatBuffer arg2) {}
+	@Override public void glGetTexParameteriv(int arg0, int arg1, IntBuffer arg2) {}
+	@Override public int glGetUniformLocation(int arg0, String arg1) { return -1; }
+	@Override public void glGetUniformfv(int arg0, int arg1, FloatBuffer arg2) {}
+	@Override public void glGetUniformiv(int arg0, int arg1, IntBuffer arg2) {}
+	@Override public void glGetVertexAttribPointerv(int arg0, int arg1, Buffer arg2) {}
+	@Override public void glGetVertexAttribfv(int arg0, int arg1, FloatBuffer arg2) {}
+	@Override public void glGetVertexAttribiv(int arg0, int arg1, IntBuffer arg2) {}
+	@Override public void glHint(int arg0, int arg1) {}
+	@Override public boolean glIsBuffer(int arg0) { return false; }
+	@Override public boolean glIsEnabled(int arg0) { return false; }
+	@Override public boolean glIsFramebuffer(int arg0) { return false; }
+	@Override public boolean glIsProgram(int arg0) { return false; }
+	@Override public boolean glIsRenderbuffer(int arg0) { return false; }
+	@Override public boolean glIsShader(int arg0) { return false; }
+	@Override public boolean glIsTexture(int arg0) { return false; }
+	@Override public void glLineWidth(float arg0) {}
+	@Override public void glLinkProgram(int arg0) {}
+	@Override public void glPixelStorei(int arg0, int arg1) {}
+	@Override public void glPolygonOffset(float arg0, float arg1) {}
+	@Override public void glReadPixels(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, Buffer arg6) {}
+	@Override public void glReleaseShaderCompiler() {}
+	@Override public void glRenderbufferStorage(int arg0, int arg1, int arg2, int arg3) {}
+	@Override public void glSampleCoverage(float arg0, boolean arg1) {}
+	@Override public void glScissor(int arg0, int arg1, int arg2, int arg3) {}
+	@Override public void glShaderBinary(int arg0, IntBuffer arg1, int arg2, Buffer arg3, int arg4) {}
+	@Override public void glShaderSource(int arg0, String arg1) {}
+	@Override public void glStencilFunc(int arg0, int arg1, int arg2) {}
+	@Override public void glStencilFuncSeparate(int arg0, int arg1, int arg2, int arg3) {}
+	@Override public void glStencilMask(int arg0) {}
+	@Override public void glStencilMaskSeparate(int arg0, int arg1) {}
+	@Override public void glStencilOp(int arg0, int arg1, int arg2) {}
+	@Override public void glStencilOpSeparate(int arg0, int arg1, int arg2, int arg3) {}
+	@Override public void glTexImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, Buffer arg8) {}
+	@Override public void glTexParameterf(int arg0, int arg1, float arg2) {}
+	@Override public void glTexParameterfv(int arg0, int arg1, FloatBuffer arg2) {}
+	@Override public void glTexParameteri(int arg0, int arg1, int arg2) {}
+	@Override public void glTexParameteriv(int arg0, int arg1, IntBuffer arg2) {}
+	@Override public void glTexSubImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, Buffer arg8) {}
+	@Override public void glUniform1f(int arg0, float arg1) {}
+	@Override public void glUniform1fv(int arg0, int arg1, FloatBuffer arg2) {}
+	@Override public void glUniform1i(int arg0, int arg1) {}
+	@Override public void glUniform1iv(int arg0, int arg1, IntBuffer arg2) {}
+	@Override public void glUniform2f(int arg0, float arg1, float arg2) {}
+	@Override public void glUniform2fv(int arg0, int arg1, FloatBuffer arg2) {}
+	@Override public void glUniform2i(int arg0, int arg1, int arg2) {}
+	@Override public void glUniform2iv(int arg0, int arg1, IntBuffer arg2) {}
+	@Override public void glUniform3f(int arg0, float arg1, float arg2, float arg3) {}
+	@Override public void glUniform3fv(int arg0, int arg1, FloatBuffer arg2) {}
+	@Override public void glUniform3i(int arg0, int arg1, int arg2, int arg3) {}
+	@Override public void glUniform3iv(int arg0, int arg1, IntBuffer arg2) {}
+	@Override public void glUniform4f(int arg0, float arg1, float arg2, float arg3, float arg4) {}
+	@Override public void glUniform4fv(int arg0, int arg1, FloatBuffer arg2) {}
+	@Override public void glUniform4i(int arg0, int arg1, int arg2, int arg3, int arg4) {}
+	@Override public void glUniform4iv(int arg0, int arg1, IntBuffer arg2) {}
+	@Override public void glUniformMatrix2fv(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {}
+	@Override public void glUniformMatrix3fv(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {}
+	@Override public void glUniformMatrix4fv(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {}
+	@Override public void glUseProgram(int arg0) {}
+	@Override public void glValidateProgram(int arg0) {}
+	@Override public void glVertexAttrib1f(int arg0, float arg1) {}
+	@Override public void glVertexAttrib1fv(int arg0, FloatBuffer arg1) {}
+	@Override public void glVertexAttrib2f(int arg0, float arg1, float arg2) {}
+	@Override public void glVertexAttrib2fv(int arg0, FloatBuffer arg1) {}
+	@Override public void glVertexAttrib3f(int arg0, float arg1, float arg2, float arg3) {}
+	@Override public void glVertexAttrib3fv(int arg0, FloatBuffer arg1) {}
+	@Override public void glVertexAttrib4f(int arg0, float arg1, float arg2, float arg3, float arg4) {}
+	@Override public void glVertexAttrib4fv(int arg0, FloatBuffer arg1) {}
+	@Override public void glVertexAttribPointer(int arg0, int arg1, int arg2, boolean arg3, int arg4, int arg5) {}
+	@Override public void glVertexAttribPointer(int arg0, int arg1, int arg2, boolean arg3, int arg4, Buffer arg5) {}
+	@Override public void glViewport(int arg0, int arg1, int arg2, int arg3) {}
+
+	/**
+	 * Answers a glGetShaderiv() or glGetProgramiv() query, reporting success
+	 * for compile and link status and 0 for anything else.
+	 *
+	 * @param pname the queried parameter
+	 * @param params the buffer to write the answer to
+	 */
+	private static void succeed(int pname, IntBuffer params) {
+		boolean status = pname == GL_COMPILE_STATUS || pname == GL_LINK_STATUS;
+		params.put(params.position(), status ? 1 : 0);
+	}
+}
@@ -0,0 +1,78 @@
+package shivanhunter.voxelgame;
+
+/**
+ * Measures how long meshing takes, in CPU time on the meshing thread, for
+ * Regions in several generated Neighborhoods. For each Neighborhood the
+ * fastest of several runs is kept, which filters out garbage collection and
+ * other threads, and the results are averaged over the Neighborhoods.
+ *
+ * Besides whole createMesh() calls at full detail, building the
+ * OcclusionTable is timed on its own, since it is the fixed cost of ambient
+ * occlusion per Region, along with counting the AO boxes around every cell
+ * of the Region's face heights.
+ *
+ * Arguments are an optional number of runs per Neighborhood (100 by
+ * default).
+ */
+public class MeshThroughputBenchmark {
+	private static final long[] SEEDS = { 42, 1 };
+	private static final int[][] POSITIONS = { { 0, 0 }, { 5, -3 }, { -10, 12 } };
+
+	public static void main(String[] args) throws InterruptedException {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		Benchmarks.loadDecoModels();
+
+		long meshTime = 0, tableTime = 0, queryTime = 0;
+		int neighborhoods = 0, queries = 0;
+
+		// keeps the JIT from dropping the AO queries
+		long checksum = 0;
+
+		for (long seed : SEEDS) {
+			for (int[] position : POSITIONS) {
+				Neighborhood n = Benchmarks.generateNeighborhood(position[0], position[1], seed);
+				Region r = n.getRegion(0, 0);
+				NeighborhoodSnapshot blocks = NeighborhoodSnapshot.get();
+				OcclusionTable occlusion = OcclusionTable.get();
+
+				long bestMesh = Long.MAX_VALUE, bestTable = Long.MAX_VALUE, bestQuery = Long.MAX_VALUE;
+				for (int i = 0; i < runs; ++i) {
+					long start = Benchmarks.getCpuTime();
+					r.createMesh(n, Region.ALL_SECTIONS, 0, true);
+					bestMesh = Math.min(bestMesh, Benchmarks.getCpuTime() - start);
+
+					blocks.copy(n);
+					start = Benchmarks.getCpuTime();
+					occlusion.build(blocks);
+					bestTable = Math.min(bestTable, Benchmarks.getCpuTime() - start);
+
+					// the radius 3 and 1 boxes around every cell with faces
+					queries = 0;
+					int bottom = Math.max(0, blocks.getOpenBottom() - 1);
+					int top = Math.min(Region.HEIGHT, blocks.getSolidTop() + 1);
+					start = Benchmarks.getCpuTime();
+					for (int x = 0; x <= Region.WIDTH; ++x) {
+						for (int y = bottom; y <= top; ++y) {
+							for (int z = 0; z <= Region.WIDTH; ++z) {
+								checksum += occlusion.count(x-3, y-3, z-3, x+3, y+3, z+3);
+								checksum += occlusion.count(x-1, y-1, z-1, x+1, y+1, z+1);
+								queries += 2;
+							}
+						}
+					}
+					bestQuery = Math.min(bestQuery, Benchmarks.getCpuTime() - start);
+				}
+
+				meshTime += bestMesh;
+				tableTime += bestTable;
+				queryTime += bestQuery;
+				neighborhoods++;
+			}
+		}
+
+		System.out.println("createMesh: " + meshTime/neighborhoods/1000 + " us per Region");
+		System.out.println("OcclusionTable.build: " + tableTime/neighborhoods/1000 + " us per Region");
+		System.out.println("OcclusionTable.count: " + queryTime/neighborhoods/1000 +
+				" us per Region (" + queries + " boxes in the last one, checksum " + checksum + ")");
+	}
+}
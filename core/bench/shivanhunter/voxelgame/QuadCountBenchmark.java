@@ -0,0 +1,88 @@
+package shivanhunter.voxelgame;
+
+/**
+ * Counts the quads meshing produces for the center Regions of several
+ * generated Neighborhoods, at full detail with one quad per block face and
+ * with greedy meshing, and at each lower level of detail (which is always
+ * greedy). For each, the number of sections with any faces is counted too,
+ * since each of those is a separate mesh and draw call.
+ *
+ * Arguments are an optional seed and region coordinate pair, to count one
+ * Region only. By default, Regions 0, 7 and 14 along x are counted for seeds
+ * 1, 42 and 1234567.
+ */
+public class QuadCountBenchmark {
+	private static final long[] SEEDS = { 1, 42, 1234567 };
+	private static final int[] POSITIONS = { 0, 7, 14 };
+
+	public static void main(String[] args) throws InterruptedException {
+		// per-face, greedy, then LOD 1 and up
+		int modes = Region.LOD_LEVELS + 1;
+		int[] totalQuads = new int[modes], totalSections = new int[modes];
+
+		if (args.length > 2) {
+			count(Long.parseLong(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+					totalQuads, totalSections);
+		} else {
+			for (long seed : SEEDS) {
+				for (int x : POSITIONS) {
+					count(seed, x, 0, totalQuads, totalSections);
+				}
+			}
+		}
+
+		System.out.println("total: " + describe(totalQuads, totalSections));
+	}
+
+	/**
+	 * Meshes one Region in every mode, prints its counts and adds them to the
+	 * totals.
+	 *
+	 * @param seed the seed to generate with
+	 * @param x the Region's x coordinate
+	 * @param z the Region's z coordinate
+	 * @param totalQuads the quads counted so far in each mode
+	 * @param totalSections the sections with faces counted so far in each mode
+	 * @throws InterruptedException if meshing was interrupted
+	 */
+	private static void count(long seed, int x, int z, int[] totalQuads, int[] totalSections)
+			throws InterruptedException {
+		Neighborhood n = Benchmarks.generateNeighborhood(x, z, seed);
+		Region r = n.getRegion(0, 0);
+		int[] quads = new int[totalQuads.length], sections = new int[totalSections.length];
+
+		for (int mode = 0; mode < quads.length; ++mode) {
+			Region.setGreedyMeshing(mode > 0);
+			r.createMesh(n, Region.ALL_SECTIONS, Math.max(0, mode-1), false);
+
+			for (int section = 0; section < Region.SECTIONS; ++section) {
+				int sectionQuads = r.getNewQuadCount(section);
+				quads[mode] += sectionQuads;
+				if (sectionQuads > 0) sections[mode]++;
+			}
+			totalQuads[mode] += quads[mode];
+			totalSections[mode] += sections[mode];
+		}
+		Region.setGreedyMeshing(true);
+
+		System.out.println("seed " + seed + ", region (" + x + ", " + z + "): " +
+				describe(quads, sections));
+	}
+
+	/**
+	 * Formats quad and section counts for each mode.
+	 *
+	 * @param quads the quads in each mode
+	 * @param sections the sections with faces in each mode
+	 * @return the counts, as text
+	 */
+	private static String describe(int[] quads, int[] sections) {
+		StringBuilder text = new StringBuilder();
+		for (int mode = 0; mode < quads.length; ++mode) {
+			if (mode > 0) text.append(", ");
+			text.append(mode == 0 ? "per-face " : mode == 1 ? "greedy " : "LOD " + (mode-1) + " ");
+			text.append(quads[mode]).append(" quads in ").append(sections[mode]).append(" sections");
+		}
+		return text.toString();
+	}
+}
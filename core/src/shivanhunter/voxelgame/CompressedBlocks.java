@@ -0,0 +1,89 @@
+package shivanhunter.voxelgame;
+
+/**
+ * Compresses a Region's block data into runs along each column.
+ *
+ * Terrain is made of long vertical stretches of the same block (stone, then
+ * air, with the odd deco block at the surface), so most columns are only a
+ * few runs long. Each run is two bytes, its length minus one and its block,
+ * which fits any run since a column is at most 256 blocks tall. Columns are
+ * stored one after another, ordered by x then z like the opacity bitsets,
+ * and each column's runs add up to exactly Region.HEIGHT blocks, so no
+ * column offsets are needed.
+ *
+ * A typical Region compresses from 64 KB of blocks to about 1 KB, and can be
+ * decompressed in well under a millisecond.
+ */
+public class CompressedBlocks {
+	/**
+	 * Compresses block data into column runs.
+	 *
+	 * @param data the block data, a byte[WIDTH][HEIGHT][WIDTH]
+	 * @return the compressed block data
+	 */
+	public static byte[] compress(byte[][][] data) {
+		// count the runs first, so the result can be filled in place
+		int runs = 0;
+		for (int x = 0; x < Region.WIDTH; ++x) {
+			for (int z = 0; z < Region.WIDTH; ++z) {
+				for (int y = 0; y < Region.HEIGHT; y = findRunEnd(data, x, y, z)) {
+					runs++;
+				}
+			}
+		}
+
+		byte[] compressed = new byte[runs*2];
+		int index = 0;
+		for (int x = 0; x < Region.WIDTH; ++x) {
+			for (int z = 0; z < Region.WIDTH; ++z) {
+				int y = 0;
+				while (y < Region.HEIGHT) {
+					int end = findRunEnd(data, x, y, z);
+					compressed[index++] = (byte)(end - y - 1);
+					compressed[index++] = data[x][y][z];
+					y = end;
+				}
+			}
+		}
+
+		return compressed;
+	}
+
+	/**
+	 * Decompresses column runs back into block data.
+	 *
+	 * @param compressed the compressed block data, as returned by compress()
+	 * @param data the block data to fill, a byte[WIDTH][HEIGHT][WIDTH]
+	 */
+	public static void decompress(byte[] compressed, byte[][][] data) {
+		int index = 0;
+		for (int x = 0; x < Region.WIDTH; ++x) {
+			for (int z = 0; z < Region.WIDTH; ++z) {
+				int y = 0;
+				while (y < Region.HEIGHT) {
+					int end = y + (compressed[index++] & 0xFF) + 1;
+					byte block = compressed[index++];
+					for (; y < end; ++y) {
+						data[x][y][z] = block;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds where a run of identical blocks going up a column ends.
+	 *
+	 * @param data the block data
+	 * @param x the x index of the column
+	 * @param y the y index of the run's first block
+	 * @param z the z index of the column
+	 * @return the y index just above the run's last block
+	 */
+	private static int findRunEnd(byte[][][] data, int x, int y, int z) {
+		byte block = data[x][y][z];
+		int end = y + 1;
+		while (end < Region.HEIGHT && data[x][end][z] == block) end++;
+		return end;
+	}
+}
@@ -1,13 +1,23 @@
 package shivanhunter.voxelgame;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.PriorityQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.VertexAttributes.Usage;
 import com.badlogic.gdx.graphics.g3d.Environment;
 import com.badlogic.gdx.graphics.g3d.Material;
@@ -16,6 +26,8 @@ import com.badlogic.gdx.graphics.g3d.ModelBatch;
 import com.badlogic.gdx.graphics.g3d.ModelInstance;
 import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
 import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector3;
 
 /**
  * Map maintains a collection of world regions centered in an n*n area around
@@ -26,11 +38,116 @@ import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
  * Regions. Region coordinates are stored using a private class, MapCoord,
  * which overrides HashCode and Equals so it can be used in HashMaps, and
  * implements Comparable<MapCoord> so it can be used in a PriorityQueue. 
+ * 
+ * Once everything around the player is loaded, an update allocates nothing:
+ * Regions are looked up in a grid instead of by MapCoord, and the Map is
+ * only pruned and refilled when the player enters a new Region.
  */
 public class Map {
 	// the coordinate for the Region the player is in
 	private MapCoord playerRegion;
 	
+	// whether the player entered a new Region since the Map was last pruned
+	// and refilled
+	private boolean playerRegionChanged = true;
+	
+	/*
+	 * Generation priority is biased towards where the player is going. The
+	 * player's velocity is projected lookaheadTime seconds ahead, and the
+	 * offset to the projected position is kept in whole Regions. Regions are
+	 * then prioritized by their distance to the path between playerRegion and
+	 * the projected Region rather than to playerRegion alone, so Regions
+	 * along the path are loaded first.
+	 * 
+	 * The camera heading is kept as one of HEADING_SECTORS directions, and
+	 * Regions behind the camera are pushed back by up to headingBias. Both
+	 * are quantized so the PriorityQueues are only reordered when the
+	 * projected Region or the heading sector changes.
+	 */
+	private float lookaheadTime = 1.5f;
+	private int lookaheadX = 0, lookaheadZ = 0;
+	private int headingSector = 0;
+	private float headingX = 1, headingZ = 0;
+	private static final int HEADING_SECTORS = 8;
+	private static final float headingBias = 2;
+	
+	/*
+	 * Regions further from the player are meshed at lower levels of detail
+	 * (see Region.LOD_LEVELS). A Region moves to LOD n+1 once it is at least
+	 * lodDistances[n]*range Regions from the player's Region, and only moves
+	 * back once it is closer than that by lodHysteresis times the distance,
+	 * so Regions near a threshold aren't meshed again every time the player
+	 * crosses a Region boundary. Both scale with the range, like the deco
+	 * draw distance (decoDistance*range), and a Region never stays coarse
+	 * within the deco draw distance, since only full detail meshes have deco.
+	 */
+	private static final float[] lodDistances = { 0.4f, 0.7f };
+	private static final float lodHysteresis = 0.1f;
+	
+	/*
+	 * Deco is drawn within decoDistance*range Regions of the player's
+	 * Region. Deco layers are baked by the meshing workers for Regions
+	 * within decoHysteresis Regions past that distance, and uploaded as part
+	 * of the main thread's loading budget. They are only unloaded once they
+	 * are past that as well, so crossing back and forth over a Region
+	 * boundary doesn't build the same layers again every time.
+	 */
+	private static final float decoDistance = 1/3f;
+	private static final float decoHysteresis = 1;
+	
+	/*
+	 * Meshes at a coarser level of detail only need a Region's opacity
+	 * bitsets, so if releaseFarData is set, a Region releases its block data
+	 * once it and all of its neighbors are meshed at LOD 1 or higher (see
+	 * Region.releaseData()). Nothing then needs the data until the Region or
+	 * a neighbor moves back to LOD 0, when the meshing task generates it
+	 * again, so the heap used for block data only scales with the LOD 0
+	 * area rather than the whole Map.
+	 * 
+	 * Closer than that, Regions at least compressDistance*range Regions from
+	 * the player's Region compress their block data instead, once they and
+	 * their neighbors have no meshing pending (see Region.compressData()).
+	 * The data is decompressed by whatever reads it next, which is quick
+	 * enough to do in the middle of meshing or setting a block, and unlike
+	 * releasing it, keeps any blocks which were set.
+	 */
+	private boolean releaseFarData = true;
+	private float compressDistance = 0.25f;
+	
+	// number of times the player entered a new Region, and how many of those
+	// Regions did not have a mesh yet
+	private int regionsEntered = 0, regionsEnteredUnready = 0;
+	
+	// number of Regions, and of sections with faces, rendered in the last
+	// update, after culling
+	private int regionsRendered = 0, sectionsRendered = 0;
+	
+	// finds the sections which may be visible from the camera each update
+	private final SectionVisibility visibility;
+	
+	/*
+	 * The Regions to render, which are the meshed Regions within the render
+	 * distance, sorted from nearest to farthest so that near terrain fills
+	 * the depth buffer first. The deco layer is only drawn within a certain
+	 * distance, so the Regions which draw it are the first decoCount in the
+	 * list. The list is only rebuilt, along with visibility's search area,
+	 * when the player enters a new Region, when a Region's first mesh is
+	 * loaded, or when Regions are pruned. Regions join the list with their
+	 * first mesh, so unmeshed Regions added to the Map don't change it.
+	 */
+	private Region[] renderList = new Region[0];
+	private int renderCount = 0, decoCount = 0;
+	private boolean renderListChanged = true;
+	
+	// orders Regions by distance from the player's Region, nearest first
+	private final Comparator<Region> nearestFirst = new Comparator<Region>() {
+		@Override public int compare(Region a, Region b) {
+			return Float.compare(
+					playerRegion.distance(a.getX(), a.getZ()),
+					playerRegion.distance(b.getX(), b.getZ()));
+		}
+	};
+	
 	// the square radius around the player's region in which to maintain the Map
 	private final int range;
 	
@@ -38,12 +155,37 @@ public class Map {
 	private long seed;
 	
 	/*
-	 * Regions are generated in separate threads. Since adding every coordinate
-	 * to its own thread immediately is almost as bad as doing them all in the
-	 * main thread, the number of worker threads is limited.
+	 * Regions are generated and meshed in separate threads. Since adding
+	 * every coordinate to its own thread immediately is almost as bad as
+	 * doing them all in the main thread, the number of worker threads is
+	 * limited.
+	 * 
+	 * Generation and meshing each have their own thread pool. The worker
+	 * threads are split between the two pools, and the split is adjusted
+	 * every update by balanceWorkers() based on how much work is queued for
+	 * each stage, so meshing can keep up with generation while the player is
+	 * moving quickly. Each pool always keeps at least one thread.
+	 */
+	private static final int maxThreads =
+			Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+	private int generationThreads = maxThreads - 1, meshingThreads = 1;
+	private final ThreadPoolExecutor generationPool = createPool("RegionCreator", generationThreads);
+	private final ThreadPoolExecutor meshingPool = createPool("RegionMeshCreator", meshingThreads);
+	
+	// total time spent and number of tasks finished by each pool, used to
+	// estimate how long the work queued for each pool will take
+	private final AtomicLong generationNanos = new AtomicLong(), generationCount = new AtomicLong();
+	private final AtomicLong meshingNanos = new AtomicLong(), meshingCount = new AtomicLong();
+	
+	/*
+	 * A task cancelled while it is running keeps its thread until it next
+	 * checks for interruption, though it is no longer in regionsInProgress or
+	 * meshesInProgress. These count such stale tasks for each pool (see
+	 * WorkerTask), so new tasks are only started once they have stopped and
+	 * a pool never has more tasks running than its share of the threads.
 	 */
-	private int activeThreads = 0;
-	private static final int maxThreads = 2;
+	private final AtomicInteger staleGenerations = new AtomicInteger();
+	private final AtomicInteger staleMeshings = new AtomicInteger();
 	
 	/*
 	 * A Region "r" is created in two passes: First, the raw block data is
@@ -70,12 +212,18 @@ public class Map {
 	
 	/*
 	 * Regions are created in another thread. When a MapCoord is given to a
-	 * RegionCreator thread, it is removed from toCreate and added to this list.
+	 * RegionCreator task, it is removed from toCreate and added to this map,
+	 * along with the task working on it.
+	 * 
+	 * If the coordinate falls out of range before the task finishes, the
+	 * task is cancelled (interrupting its thread) and the coordinate removed,
+	 * and any Region the task still manages to finish is discarded.
 	 * 
-	 * RegionsInProgress should never have more than <activeThreads> members.
-	 * It may have fewer.
+	 * RegionsInProgress should never have more than <generationThreads>
+	 * members. It may have fewer.
 	 */
-	private Collection<MapCoord> regionsInProgress = new LinkedList<MapCoord>();
+	private HashMap<MapCoord, WorkerTask> regionsInProgress =
+			new HashMap<MapCoord, WorkerTask>();
 	
 	/*
 	 * RegionCreator threads add finished Regions to this queue. BlockingQueue
@@ -97,21 +245,38 @@ public class Map {
 	 * With a large rendering radius, Map can grow to a large (>1000) size. 
 	 */
 	private HashMap<MapCoord, Region> map = new HashMap<MapCoord, Region>();
+	
+	/*
+	 * Every Region in the Map is also kept in this grid, so it can be looked
+	 * up without creating a MapCoord. The grid is gridSize Regions square,
+	 * just enough for the area in range of the player, and Region (x, z) is
+	 * kept at (x mod gridSize, z mod gridSize), so the grid never has to move
+	 * with the player. The Map is pruned before any Regions are added to it,
+	 * so no two Regions in the Map ever share a slot.
+	 */
+	private final int gridSize;
+	private final Region[] grid;
 
 	/**
 	 * When a Region is added to the Map and removed from regionsInProgress, it
 	 * is also immediately entered in waitingForNeighbors. Meshing cannot occur
 	 * until all eight adjacent Regions also exist in the Map.
 	 * 
+	 * Each Region keeps a count of its neighbors in the Map, which is updated
+	 * whenever a Region is added or pruned, so waitingForNeighbors never has
+	 * to be polled: a Region is moved out of it exactly when its count
+	 * reaches eight.
+	 * 
 	 * Typically, waitingForNeighbors forms a border around visible Regions. It
 	 * can grow to a somewhat large (>200 members) size.
 	 */
-	private Collection<Region> waitingForNeighbors = new LinkedList<Region>();
+	private Collection<Region> waitingForNeighbors = new HashSet<Region>();
 	
 	/**
 	 * Regions are added to toCreateMesh as soon as they have a full set of
-	 * neighbors. This queue must also be reordered every time the player's
-	 * Region changes.
+	 * neighbors, and are moved back to waitingForNeighbors if one of their
+	 * neighbors is pruned. This queue must also be reordered every time the
+	 * player's Region changes.
 	 * 
 	 * Since meshing tends to be faster then generating, toCreateMesh is
 	 * usually very small. Regions are meshed and removed faster than they
@@ -121,9 +286,11 @@ public class Map {
 	
 	/**
 	 * Regions are meshed in another thread. As with regionsInProgress, this
-	 * list contains the Regions currently being worked on by a thread.
+	 * map contains the Regions currently being worked on by a task, and the
+	 * task is cancelled if its Region is pruned.
 	 */
-	private Collection<Region> meshesInProgress = new LinkedList<Region>();
+	private HashMap<Region, WorkerTask> meshesInProgress =
+			new HashMap<Region, WorkerTask>();
 	
 	/**
 	 * As with newRegions, this queue is used to indicate which Regions have
@@ -133,9 +300,47 @@ public class Map {
 	 */
 	private BlockingQueue<Region> newMeshes = new LinkedBlockingQueue<Region>();
 	
+	/*
+	 * Tasks which fail with an exception report their coordinate or Region
+	 * here instead, so the main thread can take them out of
+	 * regionsInProgress or meshesInProgress. Otherwise they would keep a
+	 * worker slot forever. Neither is retried straight away, so a failure
+	 * that happens every time can't keep a worker busy: a coordinate is
+	 * queued again, and a Region's sections are meshed again, the next time
+	 * the player enters a new Region.
+	 */
+	private BlockingQueue<MapCoord> failedRegions = new LinkedBlockingQueue<MapCoord>();
+	private BlockingQueue<Region> failedMeshes = new LinkedBlockingQueue<Region>();
+	
+	/**
+	 * Loading a finished mesh uploads it to the GPU, which is too slow to do
+	 * for every new mesh in a single frame. Regions from newMeshes are moved
+	 * into this queue, which is ordered by distance from the player like
+	 * toCreateMesh, and their sections are loaded one at a time until
+	 * integrationBudget is used up. Anything left over is carried over to the
+	 * next update. This queue must also be reordered every time the player's
+	 * Region changes.
+	 */
+	private PriorityQueue<Region> meshesToLoad = new PriorityQueue<Region>();
+	
+	// scratch lists for reordering the PriorityQueues, see updatePriorities()
+	private final ArrayList<MapCoord> tempCoords = new ArrayList<MapCoord>();
+	private final ArrayList<Region> tempRegions = new ArrayList<Region>();
+	
+	// time in nanoseconds the main thread may spend loading meshes each update
+	private long integrationBudget = 4000000;
+	
+	// offsets to the eight Regions adjacent to a Region, in the same order
+	// as the Neighborhood constructor (north, then clockwise)
+	private static final int[] NEIGHBOR_X = { 0, 1, 1, 1, 0, -1, -1, -1 };
+	private static final int[] NEIGHBOR_Z = { 1, 1, 0, -1, -1, -1, 0, 1 };
+	
 	private static final boolean RENDERDEBUG = false;
 	private Model toCreateIndicator;
 	
+	// instances of toCreateIndicator, reused every update
+	private ArrayList<ModelInstance> debugIndicators = new ArrayList<ModelInstance>();
+	
 	/**
 	 * Constructs a Map given a seed and a rendering range. The map will
 	 * generate regions in a range*2+1 by range*2+1 area.
@@ -147,6 +352,9 @@ public class Map {
 		this.seed = seed;
 		this.range = range;
 		this.playerRegion = new MapCoord(0, 0, 0);
+		this.visibility = new SectionVisibility(range);
+		this.gridSize = range*2 + 1;
+		this.grid = new Region[gridSize*gridSize];
 		
 		ModelBuilder builder = new ModelBuilder();
 		toCreateIndicator = builder.createBox(8, 8, 8,
@@ -155,7 +363,7 @@ public class Map {
 	}
 	
 	/**
-	 * sets the player's Region and updates both PriorityQueues to reflect the
+	 * sets the player's Region and updates the PriorityQueues to reflect the
 	 * new priorities.
 	 * 
 	 * @param x the player's region coordinate (not block coordinate) in x
@@ -165,38 +373,233 @@ public class Map {
 		if (playerRegion.x == x && playerRegion.z == z) return;
 		
 		playerRegion = new MapCoord(x, z, 0);
+		playerRegionChanged = true;
+		renderListChanged = true;
 		
-		// since PriorityQueue has not method to reorder the heap, just take
-		// everything out and stick it all back in
+		// keep track of how often the player outruns meshing
+		regionsEntered++;
+		Region entered = get(x, z);
+		if (entered == null || !entered.hasMesh()) regionsEnteredUnready++;
 		
-		Collection<MapCoord> tempToCreate = new LinkedList<MapCoord>();
-		Collection<Region> tempToCreateMesh = new LinkedList<Region>();
+		updatePriorities();
+		updateLods();
+	}
+	
+	/**
+	 * Sets the player's velocity and the camera's direction, which bias
+	 * generation priority towards the player's projected path. If the
+	 * projected Region or the camera's heading sector changes, the
+	 * PriorityQueues are updated to reflect the new priorities.
+	 * 
+	 * @param velocity the player's velocity in blocks per second
+	 * @param direction the camera's direction
+	 */
+	public void setPlayerMotion(Vector3 velocity, Vector3 direction) {
+		int newLookaheadX = MathUtils.round(velocity.x*lookaheadTime/Region.WIDTH);
+		int newLookaheadZ = MathUtils.round(velocity.z*lookaheadTime/Region.WIDTH);
 		
-		// update priority and add to temp lists
-		for (MapCoord coord : toCreate) {
-			coord.generationPriority = playerRegion.distance(coord.x, coord.z);
-			tempToCreate.add(coord);
+		int newHeadingSector = MathUtils.round(
+				MathUtils.atan2(direction.z, direction.x)/MathUtils.PI2*HEADING_SECTORS);
+		newHeadingSector = (newHeadingSector + HEADING_SECTORS) % HEADING_SECTORS;
+		
+		if (newLookaheadX == lookaheadX && newLookaheadZ == lookaheadZ &&
+				newHeadingSector == headingSector) return;
+		
+		lookaheadX = newLookaheadX;
+		lookaheadZ = newLookaheadZ;
+		headingSector = newHeadingSector;
+		headingX = MathUtils.cos(headingSector*MathUtils.PI2/HEADING_SECTORS);
+		headingZ = MathUtils.sin(headingSector*MathUtils.PI2/HEADING_SECTORS);
+		
+		updatePriorities();
+	}
+	
+	/**
+	 * Sets how far ahead, in seconds, the player's velocity is projected when
+	 * prioritizing Regions. A lookahead time of 0 prioritizes Regions purely
+	 * by distance from the player.
+	 * 
+	 * @param seconds the lookahead time in seconds
+	 */
+	public void setLookaheadTime(float seconds) {
+		lookaheadTime = seconds;
+	}
+	
+	/**
+	 * Gets the generation priority for the given region coordinates: the
+	 * distance in regions to the player's projected path, plus a penalty for
+	 * Regions behind the camera. Lower values are more important.
+	 * 
+	 * @param x the region coordinate in x
+	 * @param z the region coordinate in z
+	 * @return the generation priority for the given coordinates
+	 */
+	private float getPriority(int x, int z) {
+		float dx = x - playerRegion.x, dz = z - playerRegion.z;
+		
+		// project onto the path from the player's Region to the projected Region
+		float t = 0;
+		float pathLength2 = lookaheadX*lookaheadX + lookaheadZ*lookaheadZ;
+		if (pathLength2 > 0) {
+			t = MathUtils.clamp((dx*lookaheadX + dz*lookaheadZ)/pathLength2, 0, 1);
 		}
-		for (Region r : toCreateMesh) {
-			tempToCreateMesh.add(r);
+		float px = dx - t*lookaheadX, pz = dz - t*lookaheadZ;
+		float priority = (float)Math.sqrt(px*px + pz*pz);
+		
+		// push back Regions behind the camera
+		float distance = (float)Math.sqrt(dx*dx + dz*dz);
+		if (distance > 0) {
+			float facing = (dx*headingX + dz*headingZ)/distance;
+			if (facing < 0) priority -= facing*headingBias;
 		}
-		for (Region r : map.values()) {
-			r.setGenerationPriority(playerRegion.distance(r.getX(), r.getZ()));
+		
+		return priority;
+	}
+	
+	/**
+	 * Recalculates generation priorities for everything in the Map and its
+	 * queues, and reorders the PriorityQueues.
+	 */
+	private void updatePriorities() {
+		// since PriorityQueue has no method to reorder the heap, just take
+		// everything out and stick it all back in, through reused lists so
+		// that turning the camera doesn't allocate
+		while (!toCreate.isEmpty()) {
+			MapCoord coord = toCreate.poll();
+			coord.generationPriority = getPriority(coord.x, coord.z);
+			tempCoords.add(coord);
 		}
+		for (int i = 0; i < tempCoords.size(); ++i) {
+			toCreate.add(tempCoords.get(i));
+		}
+		tempCoords.clear();
 		
-		// clear PriorityQueues
-		toCreate.clear();
-		toCreateMesh.clear();
+		// walks the grid rather than the HashMap, which would allocate
+		for (Region r : grid) {
+			if (r != null) r.setGenerationPriority(getPriority(r.getX(), r.getZ()));
+		}
 		
-		// add back from temp lists
-		for (MapCoord coord : tempToCreate) {
-			toCreate.add(coord);
+		reorder(toCreateMesh);
+		reorder(meshesToLoad);
+	}
+	
+	/**
+	 * Reorders a PriorityQueue of Regions after their priorities changed.
+	 * 
+	 * @param queue the queue to reorder
+	 */
+	private void reorder(PriorityQueue<Region> queue) {
+		while (!queue.isEmpty()) {
+			tempRegions.add(queue.poll());
+		}
+		for (int i = 0; i < tempRegions.size(); ++i) {
+			queue.add(tempRegions.get(i));
+		}
+		tempRegions.clear();
+	}
+	
+	/**
+	 * Gets the level of detail a Region should be meshed at, based on its
+	 * distance from the player's Region and its current level of detail.
+	 * 
+	 * @param r the Region to get the level of detail for
+	 * @return the level of detail, from 0 (full detail) to Region.LOD_LEVELS-1
+	 */
+	private int getLod(Region r) {
+		float distance = playerRegion.distance(r.getX(), r.getZ());
+		
+		int lod = 0;
+		for (int i = 0; i < lodDistances.length; ++i) {
+			float threshold = lodDistances[i]*range;
+			
+			// Regions already past a threshold stay there a little longer,
+			// but never within the deco draw distance
+			if (r.getLod() > i) {
+				threshold = Math.max(threshold*(1 - lodHysteresis), decoDistance*range);
+			}
+			
+			if (distance >= threshold) lod = i+1;
+		}
+		
+		return lod;
+	}
+	
+	/**
+	 * Updates the level of detail of every Region in the Map, and queues
+	 * Regions whose level changed to be meshed again, along with any Regions
+	 * left dirty by a failed meshing task. Regions which no longer need their
+	 * raw block data compress or release it.
+	 */
+	private void updateLods() {
+		for (Region r : map.values()) {
+			if (r.setLod(getLod(r)) || r.isDirty()) requestMesh(r);
 		}
-		for (Region r : tempToCreateMesh) {
-			toCreateMesh.add(r);
+		for (Region r : map.values()) {
+			storeData(r);
 		}
+	}
+	
+	/**
+	 * Releases or compresses a Region's block data if it and all of its
+	 * neighbors are meshed with no meshing pending. The data is released
+	 * if releaseFarData is set and they are all meshed at LOD 1 or higher,
+	 * so nothing will read it, and otherwise compressed if the Region is at
+	 * least compressDistance*range Regions from the player's Region.
+	 * 
+	 * @param r the Region to compress or release the block data of
+	 */
+	private void storeData(Region r) {
+		if (!r.hasData() || !isMeshed(r)) return;
 		
-		//forceGenerate(x, z);
+		boolean coarse = r.getLod() > 0;
+		for (int i = 0; i < NEIGHBOR_X.length; ++i) {
+			Region neighbor = get(r.getX() + NEIGHBOR_X[i], r.getZ() + NEIGHBOR_Z[i]);
+			if (neighbor == null || !isMeshed(neighbor)) return;
+			if (neighbor.getLod() == 0) coarse = false;
+		}
+		
+		if (releaseFarData && coarse && r.releaseData()) return;
+		
+		if (!r.isCompressed() &&
+				playerRegion.distance(r.getX(), r.getZ()) >= compressDistance*range) {
+			r.compressData();
+		}
+	}
+	
+	/**
+	 * Checks whether a Region's mesh is loaded and won't be meshed again
+	 * until something changes.
+	 * 
+	 * @param r the Region to check
+	 * @return whether the Region is meshed with no meshing pending
+	 */
+	private boolean isMeshed(Region r) {
+		return r.hasMesh() && !r.isDirty() && !r.meshPending;
+	}
+	
+	/**
+	 * Sets whether far Regions release their block data once nothing needs
+	 * it. Regions which already released their data generate it again when
+	 * it is next read.
+	 * 
+	 * @param release whether to release the block data of far Regions
+	 */
+	public void setReleaseFarData(boolean release) {
+		releaseFarData = release;
+	}
+	
+	/**
+	 * Sets how far from the player's Region, as a fraction of the render
+	 * distance, Regions compress their block data once they are meshed.
+	 * Past about 1.5, no Region in the Map is far enough to be compressed.
+	 * Regions which are already compressed stay that way until their data
+	 * is next read.
+	 * 
+	 * @param fraction the distance to compress block data past, as a
+	 *        fraction of the render distance
+	 */
+	public void setCompressDistance(float fraction) {
+		compressDistance = fraction;
 	}
 	
 	/**
@@ -208,44 +611,107 @@ public class Map {
 	 * @return the Region at the given coordinates or null
 	 */
 	public Region get(int x, int z) {
-		// this MapCoord does not need a generationPriority, use -1
-		return map.get(new MapCoord(x, z, -1));
+		Region r = grid[getSlot(x, z)];
+		return r != null && r.getX() == x && r.getZ() == z ? r : null;
+	}
+	
+	/**
+	 * Checks whether this Map has caught up with the player: no Regions are
+	 * queued or in progress for generation or meshing, and no finished meshes
+	 * are waiting to be loaded. Regions on the edge of the range, waiting for
+	 * neighbors that will never be generated, don't count.
+	 * 
+	 * @return true if there is no outstanding generation or meshing work
+	 */
+	public boolean isSettled() {
+		return toCreate.isEmpty() && regionsInProgress.isEmpty() && newRegions.isEmpty()
+				&& toCreateMesh.isEmpty() && meshesInProgress.isEmpty() && newMeshes.isEmpty()
+				&& meshesToLoad.isEmpty();
+	}
+	
+	/**
+	 * Gets the index in the grid for the given region coordinates.
+	 * 
+	 * @param x the region coordinate in x
+	 * @param z the region coordinate in z
+	 * @return the index of the coordinates' slot in the grid
+	 */
+	private int getSlot(int x, int z) {
+		int slotX = x % gridSize, slotZ = z % gridSize;
+		if (slotX < 0) slotX += gridSize;
+		if (slotZ < 0) slotZ += gridSize;
+		return slotX*gridSize + slotZ;
+	}
+	
+	/**
+	 * Sets the time the main thread may spend each update loading finished
+	 * meshes. At least one mesh is loaded per update regardless of budget, so
+	 * loading always makes progress.
+	 * 
+	 * @param milliseconds the per-update budget in milliseconds
+	 */
+	public void setIntegrationBudget(float milliseconds) {
+		integrationBudget = (long)(milliseconds*1000000);
 	}
 	
 	/**
-	 * Gets some debug info to display the sizes of Map's various queues and lists
+	 * Appends some debug info to display the sizes of Map's various queues
+	 * and lists. Appending to a reused StringBuilder keeps the debug display
+	 * from allocating a new String every update.
 	 * 
-	 * @return a String containing the sizes of Map's various queues and lists
+	 * @param text the StringBuilder to append the sizes of Map's various
+	 *        queues and lists to
 	 */
-	public String getDebugInfo() {
-		return "toCreate: " + toCreate.size() + "\n" + 
-				"regionsInProgress: " + regionsInProgress.size() + "\n" +
-				"newRegions: " + newRegions.size() + "\n" +
-				"waitingForNeighbors: " + waitingForNeighbors.size() + "\n" +
-				"toCreateMesh: " + toCreateMesh.size() + "\n" +
-				"meshesInProgress: " + meshesInProgress.size() + "\n" +
-				"newMeshes: " + newMeshes.size() + "\n" +
-				"map: " + map.size() + "\n" +
-				"threads: " + activeThreads + "/" + maxThreads + "\n";
+	public void appendDebugInfo(StringBuilder text) {
+		// walks the grid rather than the HashMap, which would allocate
+		int regionsWithData = 0, regionsCompressed = 0;
+		long dataBytes = 0;
+		for (Region r : grid) {
+			if (r == null) continue;
+			if (r.hasData()) regionsWithData++;
+			if (r.isCompressed()) regionsCompressed++;
+			dataBytes += r.getDataSize();
+		}
+		
+		text.append("toCreate: ").append(toCreate.size()).append('\n')
+				.append("regionsInProgress: ").append(regionsInProgress.size()).append('\n')
+				.append("newRegions: ").append(newRegions.size()).append('\n')
+				.append("waitingForNeighbors: ").append(waitingForNeighbors.size()).append('\n')
+				.append("toCreateMesh: ").append(toCreateMesh.size()).append('\n')
+				.append("meshesInProgress: ").append(meshesInProgress.size()).append('\n')
+				.append("newMeshes: ").append(newMeshes.size()).append('\n')
+				.append("meshesToLoad: ").append(meshesToLoad.size()).append('\n')
+				.append("map: ").append(map.size())
+						.append(" (").append(regionsRendered).append(" rendered, ")
+						.append(regionsWithData).append(" with block data)\n")
+				.append("block data: ").append(regionsCompressed).append(" compressed, ")
+						.append(dataBytes/1024).append(" KB, ")
+						.append(Region.getAverageDecompressTime()/1000).append(" us to decompress\n")
+				.append("sections: ").append(visibility.getSectionsVisible())
+						.append(" visible, ").append(sectionsRendered).append(" rendered\n")
+				.append("entered unmeshed: ").append(regionsEnteredUnready)
+						.append('/').append(regionsEntered).append('\n')
+				.append("threads: ").append(generationThreads).append(" generating, ")
+						.append(meshingThreads).append(" meshing\n");
 	}
 	
 	/**
-	 * Renders and updates this Map.
+	 * Renders and updates this Map. Only Regions within the circular render
+	 * distance (range) whose bounds are inside the batch camera's frustum
+	 * are rendered, nearest first, and of those, only the sections
+	 * SectionVisibility finds may be visible from the camera.
 	 * 
 	 * @param environment the LinGDX Environment for rendering
-	 * @param batch the LibGDX ModelBatch for rendering
+	 * @param batch the LibGDX ModelBatch for rendering, between begin() and end()
 	 */
 	public void render(Environment environment, ModelBatch batch) {
-		// add any coordinates in range of the player to toCreate if they don't exist already
-		for (int i = playerRegion.x - range; i <= playerRegion.x + range; ++i) {
-			for (int j = playerRegion.z - range; j <= playerRegion.z + range; ++j) {
-				MapCoord coords = new MapCoord(i, j, playerRegion.distance(i, j));
-				if (!map.containsKey(coords) &&
-						!toCreate.contains(coords) &&
-						!regionsInProgress.contains(coords)) {
-					toCreate.add(coords);
-				}
-			}
+		// Regions only enter or leave the range of the player when the player
+		// enters a new Region. Anything outside the range is pruned before
+		// any new Regions are added, which keeps the grid free of collisions.
+		if (playerRegionChanged) {
+			pruneMap();
+			queueRegionsInRange();
+			playerRegionChanged = false;
 		}
 		
 		// accept any finished Regions from newRegions
@@ -255,49 +721,115 @@ public class Map {
 			MapCoord coord = new MapCoord(
 					newRegion.getX(), newRegion.getZ(),
 					playerRegion.distance(newRegion.getX(), newRegion.getZ()));
+			
+			// the Region was cancelled, but finished before being interrupted
+			if (regionsInProgress.remove(coord) == null) continue;
+			
 			map.put(coord, newRegion);
-			regionsInProgress.remove(coord);
-			waitingForNeighbors.add(newRegion);
+			grid[getSlot(newRegion.getX(), newRegion.getZ())] = newRegion;
+			newRegion.setLod(getLod(newRegion));
+			addNeighbors(newRegion);
+			
+			if (newRegion.neighborCount == NEIGHBOR_X.length) {
+				queueMesh(newRegion);
+			} else {
+				waitingForNeighbors.add(newRegion);
+			}
 		}
-		
-		// if any Regions in waitingForNeighbors have a full set of neighbors,
-		// remove and add to toCreateMesh
-		Collection<Region> regionsToRemove = new LinkedList<Region>();
-		
-		for (Region r : waitingForNeighbors) {
-			if (getNeighborhood(r).isComplete()) {
-				regionsToRemove.add(r);
-				toCreateMesh.add(r);
+
+		// free the worker slots of any tasks which failed
+		MapCoord failedRegion;
+		while ((failedRegion = failedRegions.poll()) != null) {
+			regionsInProgress.remove(failedRegion);
+		}
+		Region failedMesh;
+		while ((failedMesh = failedMeshes.poll()) != null) {
+			// the sections it was meshing were already taken, so mark them
+			// all dirty to have them meshed again
+			if (meshesInProgress.remove(failedMesh) != null) {
+				failedMesh.meshPending = false;
+				failedMesh.markDirty(0, Region.HEIGHT-1);
 			}
 		}
 		
-		for (Region r : regionsToRemove) {
-			waitingForNeighbors.remove(r);		
+		// split worker threads between generating and meshing, then start
+		// tasks for the nearest Regions in each queue
+		balanceWorkers();
+		
+		while (regionsInProgress.size() + staleGenerations.get() < generationThreads &&
+				!toCreate.isEmpty()) {
+			startThread(toCreate.poll());
 		}
-
-		// start worker threads for generating or meshing Regions
-		while (activeThreads < maxThreads) {
-			if (startThread()) {
-				activeThreads++;
-			} else break;
+		while (meshesInProgress.size() + staleMeshings.get() < meshingThreads &&
+				!toCreateMesh.isEmpty()) {
+			startThread(toCreateMesh.poll());
 		}
 		
 		// accept newly meshed Regions from meshesInProgress
-		// load the finished mesh into the Region's Model and ModelInstance
 		Region newMesh;
 		while ((newMesh = newMeshes.poll()) != null) {
-			meshesInProgress.remove(newMesh);
-			newMesh.loadMesh();
+			// skip Regions which were pruned (and disposed) while meshing
+			if (meshesInProgress.remove(newMesh) == null) continue;
+			meshesToLoad.add(newMesh);
 		}
 		
-		// get rid of anything outside the range of the player
-		pruneMap();
+		// load finished mesh sections into their Region's Models and
+		// ModelInstances, nearest Region first, until the budget for this
+		// update is used up
+		long loadStart = System.nanoTime();
+		while (!meshesToLoad.isEmpty()) {
+			Region r = meshesToLoad.peek();
+			boolean hadMesh = r.hasMesh();
+			if (r.loadMesh()) {
+				meshesToLoad.poll();
+				r.meshPending = false;
+				if (!hadMesh) renderListChanged = true;
+				
+				// blocks changed while the Region was being meshed
+				if (r.isDirty()) requestMesh(r);
+				
+				// this may have been the last mesh keeping the Region or its
+				// neighbors from compressing or releasing their block data
+				storeData(r);
+				for (int i = 0; i < NEIGHBOR_X.length; ++i) {
+					Region neighbor = get(r.getX() + NEIGHBOR_X[i], r.getZ() + NEIGHBOR_Z[i]);
+					if (neighbor != null) storeData(neighbor);
+				}
+			}
+			if (System.nanoTime() - loadStart > integrationBudget) break;
+		}
 		
-		// render the map
-		for (Region r : map.values()) {
-			// deco layer is only rendered within a certain distance
-			boolean drawDeco = playerRegion.distance(r.getX(), r.getZ()) < range/3f;
-			r.render(environment, batch, drawDeco);
+		if (renderListChanged) updateRenderList();
+		
+		// upload the deco layers within the deco draw distance with whatever
+		// is left of the budget, nearest first. Layers which haven't been
+		// baked (or were unloaded) are baked by meshing their Region again.
+		for (int i = 0; i < decoCount; ++i) {
+			Region r = renderList[i];
+			if (r.hasDecoVertices()) {
+				if (System.nanoTime() - loadStart > integrationBudget) continue;
+				r.loadDecoLayer();
+			} else if (r.needsDecoLayer()) {
+				requestMesh(r);
+			}
+		}
+		
+		// find the sections which may be visible from the camera, which
+		// skips sections hidden by terrain as well as ones outside its view
+		Camera camera = batch.getCamera();
+		visibility.search(camera.frustum, camera.position.x, camera.position.y, camera.position.z);
+		
+		// render the map front to back, skipping Regions with no visible
+		// sections or outside the camera's view
+		regionsRendered = 0;
+		sectionsRendered = 0;
+		for (int i = 0; i < renderCount; ++i) {
+			Region r = renderList[i];
+			
+			int sections = visibility.getVisibleSections(r);
+			if (sections == 0 || !r.isInFrustum(camera.frustum)) continue;
+			sectionsRendered += r.render(environment, batch, sections, i < decoCount);
+			regionsRendered++;
 		}
 		
 		// render debug indicators
@@ -306,6 +838,147 @@ public class Map {
 		}
 	}
 	
+	/**
+	 * Adds the coordinates of every Region in range of the player to toCreate,
+	 * unless the Region is already in the Map, queued or being generated.
+	 */
+	private void queueRegionsInRange() {
+		for (int i = playerRegion.x - range; i <= playerRegion.x + range; ++i) {
+			for (int j = playerRegion.z - range; j <= playerRegion.z + range; ++j) {
+				if (get(i, j) != null) continue;
+				
+				MapCoord coords = new MapCoord(i, j, getPriority(i, j));
+				if (!toCreate.contains(coords) && !regionsInProgress.containsKey(coords)) {
+					toCreate.add(coords);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Rebuilds the render list from the meshed Regions within the render
+	 * distance (range), sorted nearest first, and refills visibility's
+	 * search area with them. Deco layers are only drawn within the deco
+	 * draw distance, and are unloaded from Regions past it by more than
+	 * decoHysteresis.
+	 */
+	private void updateRenderList() {
+		if (renderList.length < map.size()) renderList = new Region[map.size()];
+		
+		visibility.clear(playerRegion.x, playerRegion.z);
+		renderCount = 0;
+		for (Region r : map.values()) {
+			float distance = playerRegion.distance(r.getX(), r.getZ());
+			if (distance >= decoDistance*range + decoHysteresis) r.unloadDecoLayer();
+			
+			if (!r.hasMesh() || distance > range) continue;
+			renderList[renderCount++] = r;
+			visibility.add(r);
+		}
+		
+		// don't keep pruned Regions around from the last list
+		Arrays.fill(renderList, renderCount, renderList.length, null);
+		Arrays.sort(renderList, 0, renderCount, nearestFirst);
+		
+		decoCount = 0;
+		while (decoCount < renderCount && playerRegion.distance(
+				renderList[decoCount].getX(), renderList[decoCount].getZ()) < decoDistance*range) {
+			decoCount++;
+		}
+		
+		renderListChanged = false;
+	}
+	
+	/**
+	 * Sets the block at the given block coordinates (not region coordinates),
+	 * and queues the affected sections of its Region, and of any adjacent
+	 * Regions whose meshes depend on it, to be meshed again. Nothing happens
+	 * if the block's Region is not in the Map.
+	 * 
+	 * Blocks change immediately, but meshes only change once the affected
+	 * sections have been meshed and loaded.
+	 * 
+	 * @param x the block coordinate in x
+	 * @param y the block coordinate in y
+	 * @param z the block coordinate in z
+	 * @param block the new block data
+	 * @return whether the block was set
+	 */
+	public boolean setBlock(int x, int y, int z, byte block) {
+		if (y < 0 || y >= Region.HEIGHT) return false;
+		
+		int regionX = Region.getRegionAt(x), regionZ = Region.getRegionAt(z);
+		Region r = get(regionX, regionZ);
+		if (r == null) return false;
+		
+		r.set(x - regionX*Region.WIDTH, y, z - regionZ*Region.WIDTH, block);
+		
+		// a block affects faces and AO up to NeighborhoodSnapshot.BORDER
+		// blocks away, which may be in adjacent Regions
+		int reach = NeighborhoodSnapshot.BORDER;
+		for (int i = regionX-1; i <= regionX+1; ++i) {
+			for (int j = regionZ-1; j <= regionZ+1; ++j) {
+				int localX = x - i*Region.WIDTH, localZ = z - j*Region.WIDTH;
+				if (localX < -reach || localX >= Region.WIDTH + reach ||
+						localZ < -reach || localZ >= Region.WIDTH + reach) continue;
+				
+				Region affected = get(i, j);
+				if (affected == null) continue;
+				
+				affected.markDirty(y - reach, y + reach);
+				requestMesh(affected);
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Queues a Region with changed sections to be meshed again. Regions
+	 * which are already queued, still missing neighbors, or have a mesh in
+	 * progress or waiting to be loaded are left alone: they are either
+	 * meshed with their changes anyway, or requeued once their mesh is
+	 * loaded.
+	 * 
+	 * @param r the Region to mesh again
+	 */
+	private void requestMesh(Region r) {
+		if (r.neighborCount == NEIGHBOR_X.length && !r.meshPending) {
+			queueMesh(r);
+		}
+	}
+	
+	/**
+	 * Adds a Region to toCreateMesh. Its mesh stays pending (see
+	 * Region.meshPending) until it is loaded, which is tracked on the Region
+	 * rather than by searching the queues, since PriorityQueue.contains()
+	 * scans the whole queue.
+	 * 
+	 * @param r the Region to queue for meshing
+	 */
+	private void queueMesh(Region r) {
+		r.meshPending = true;
+		toCreateMesh.add(r);
+	}
+	
+	/**
+	 * Stops the worker threads and deallocates the LibGDX objects of every
+	 * Region in the Map. The Map can't be used after it is disposed.
+	 */
+	public void dispose() {
+		generationPool.shutdownNow();
+		meshingPool.shutdownNow();
+		
+		for (Region r : map.values()) {
+			r.dispose();
+		}
+		map.clear();
+		Arrays.fill(grid, null);
+		Arrays.fill(renderList, null);
+		renderCount = decoCount = 0;
+		toCreateIndicator.dispose();
+	}
+	
 	/**
 	 * Gets the neighborhood for a given Region, consisting of the eight
 	 * adjacent Regions and the Region itself
@@ -316,121 +989,239 @@ public class Map {
 	private Neighborhood getNeighborhood (Region r) {
 		return new Neighborhood(
 				r,
-				map.get(new MapCoord(r.getX(), r.getZ()+1, -1)),
-				map.get(new MapCoord(r.getX()+1, r.getZ()+1, -1)),
-				map.get(new MapCoord(r.getX()+1, r.getZ(), -1)),
-				map.get(new MapCoord(r.getX()+1, r.getZ()-1, -1)),
-				map.get(new MapCoord(r.getX(), r.getZ()-1, -1)),
-				map.get(new MapCoord(r.getX()-1, r.getZ()-1, -1)),
-				map.get(new MapCoord(r.getX()-1, r.getZ(), -1)),
-				map.get(new MapCoord(r.getX()-1, r.getZ()+1, -1))
+				get(r.getX(), r.getZ()+1),
+				get(r.getX()+1, r.getZ()+1),
+				get(r.getX()+1, r.getZ()),
+				get(r.getX()+1, r.getZ()-1),
+				get(r.getX(), r.getZ()-1),
+				get(r.getX()-1, r.getZ()-1),
+				get(r.getX()-1, r.getZ()),
+				get(r.getX()-1, r.getZ()+1)
 				);
 	}
 	
 	/**
-	 * Starts a worker thread for either generating or meshing a Region.
-	 * Returns false if no new thread was created - in this case, there is no
-	 * more work to do in other threads.
+	 * Updates neighbor counts for a Region that was just added to the Map and
+	 * for any adjacent Regions already in the Map. Adjacent Regions that now
+	 * have a full set of neighbors are moved from waitingForNeighbors to
+	 * toCreateMesh, or queued to be meshed again if their blocks changed
+	 * while they were missing a neighbor.
 	 * 
-	 * @return whether a new thread was started
+	 * @param r the Region that was added to the Map
 	 */
-	private boolean startThread() {
-		// either generate or mesh a thread
-		// first handle case where both options are available
-		if (!toCreate.isEmpty() && !toCreateMesh.isEmpty()) {
+	private void addNeighbors(Region r) {
+		for (int i = 0; i < NEIGHBOR_X.length; ++i) {
+			Region neighbor = get(r.getX() + NEIGHBOR_X[i], r.getZ() + NEIGHBOR_Z[i]);
+			if (neighbor == null) continue;
 			
-			// get nearest (most important) regions for each task
-			MapCoord toCreateCoord = toCreate.peek();
-			Region toCreateMeshRegion = toCreateMesh.peek();
+			r.neighborCount++;
+			neighbor.neighborCount++;
 			
-			// work on whichever region is nearest
-			if (toCreateMeshRegion.generationPriority < toCreateCoord.generationPriority) {
-				// meshing threads can fail to start if the Neighborhood is no
-				// longer complete (if some Regions have been pruned from the
-				// Map). Only return true if the thread successfully starts.
-				if (startThread(toCreateMeshRegion)) {
-					return true;
+			if (neighbor.neighborCount == NEIGHBOR_X.length) {
+				if (waitingForNeighbors.remove(neighbor)) {
+					queueMesh(neighbor);
+				} else if (neighbor.isDirty()) {
+					// blocks changed while a neighbor was missing
+					requestMesh(neighbor);
 				}
-			} else {
-				startThread(toCreateCoord);
-				return true;
 			}
 		}
-		// both options are not available - one or both PriorityQueues are empty
-		else if (!toCreate.isEmpty()) {
-			startThread(toCreate.peek());
-			return true;
+	}
+	
+	/**
+	 * Updates neighbor counts for the Regions adjacent to a Region that was
+	 * just removed from the Map. Adjacent Regions that were waiting to be
+	 * meshed no longer have a full set of neighbors, and are moved back from
+	 * toCreateMesh to waitingForNeighbors.
+	 * 
+	 * @param r the Region that was removed from the Map
+	 */
+	private void removeNeighbors(Region r) {
+		for (int i = 0; i < NEIGHBOR_X.length; ++i) {
+			Region neighbor = get(r.getX() + NEIGHBOR_X[i], r.getZ() + NEIGHBOR_Z[i]);
+			if (neighbor == null) continue;
+			
+			neighbor.neighborCount--;
+			
+			if (toCreateMesh.remove(neighbor)) {
+				neighbor.meshPending = false;
+				waitingForNeighbors.add(neighbor);
+			}
 		}
-		else if (!toCreateMesh.isEmpty()) {
-			return startThread(toCreateMesh.peek());
+	}
+	
+	/**
+	 * Splits the worker threads between the generation and meshing pools in
+	 * proportion to the work queued for each, estimated as the number of
+	 * queued and running tasks times the average time a task has taken so
+	 * far. Each pool keeps at least one thread.
+	 */
+	private void balanceWorkers() {
+		float generationWork = (toCreate.size() + regionsInProgress.size()) *
+				averageTime(generationNanos, generationCount);
+		float meshingWork = (toCreateMesh.size() + meshesInProgress.size()) *
+				averageTime(meshingNanos, meshingCount);
+		
+		if (generationWork + meshingWork <= 0) return;
+		
+		int newMeshingThreads = MathUtils.clamp(
+				MathUtils.round(maxThreads*meshingWork/(generationWork + meshingWork)),
+				1, maxThreads - 1);
+		
+		if (newMeshingThreads == meshingThreads) return;
+		
+		meshingThreads = newMeshingThreads;
+		generationThreads = maxThreads - newMeshingThreads;
+		resizePool(meshingPool, meshingThreads);
+		resizePool(generationPool, generationThreads);
+	}
+	
+	/**
+	 * Gets the average time in nanoseconds taken by the tasks of one pool, or
+	 * 1 if no tasks have finished yet.
+	 * 
+	 * @param nanos the total time taken by the pool's tasks
+	 * @param count the number of tasks the pool has finished
+	 * @return the average task time
+	 */
+	private static float averageTime(AtomicLong nanos, AtomicLong count) {
+		long n = count.get();
+		return n == 0 ? 1 : nanos.get()/(float)n;
+	}
+	
+	/**
+	 * Creates a thread pool with a fixed number of daemon threads.
+	 * 
+	 * @param name the name for the pool's threads
+	 * @param threads the number of threads
+	 * @return the new thread pool
+	 */
+	private static ThreadPoolExecutor createPool(final String name, int threads) {
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, name);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+	
+	/**
+	 * Changes the number of threads in a pool. Surplus threads exit once
+	 * they finish their current task.
+	 * 
+	 * @param pool the pool to resize
+	 * @param threads the new number of threads
+	 */
+	private static void resizePool(ThreadPoolExecutor pool, int threads) {
+		// the core size may never exceed the maximum size, so set them in
+		// whichever order keeps that true
+		if (threads > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(threads);
+			pool.setCorePoolSize(threads);
+		} else {
+			pool.setCorePoolSize(threads);
+			pool.setMaximumPoolSize(threads);
 		}
-		return false;
 	}
 	
 	/**
-	 * Starts a worker thread for generating a Region at a goven coordinate.
+	 * Starts a task in the generation pool for generating a Region at a given
+	 * coordinate, which has already been taken off toCreate.
 	 * 
 	 * @param coords the coordinates at which to generate a Region
 	 */
 	private void startThread(MapCoord coords) {
-		regionsInProgress.add(coords);
-		toCreate.remove(coords);
-		new RegionCreator(coords).start();
+		RegionCreator task = new RegionCreator(coords);
+		task.submit(generationPool);
+		regionsInProgress.put(coords, task);
 	}
 	
 	/**
-	 * Tries to start a thread for meshing a given Region. Returns true if the
-	 * thread was started; returns false if the Neighborhood is not complete.
+	 * Starts a task in the meshing pool for meshing a given Region at its
+	 * current level of detail, along with its deco layer if it is close
+	 * enough to keep one. Regions in toCreateMesh always have a full set of
+	 * neighbors, so the Neighborhood is complete. The Region has already
+	 * been taken off toCreateMesh.
 	 * 
 	 * @param r the Region for which to create a mesh
-	 * @return whether the thread was successfully started
 	 */
-	private boolean startThread(Region r) {
-		Neighborhood n = getNeighborhood(r);
-		if (n.isComplete()) {
-			meshesInProgress.add(r);
-			new RegionMeshCreator(r, n).start();
-			toCreateMesh.remove(r);
-			return true;
-		} else {
-			waitingForNeighbors.add(r);
-			toCreateMesh.remove(r);
-			return false;
-		}
+	private void startThread(Region r) {
+		boolean deco = playerRegion.distance(r.getX(), r.getZ()) <
+				decoDistance*range + decoHysteresis;
+		RegionMeshCreator task = new RegionMeshCreator(r, getNeighborhood(r),
+				r.takeDirtySections(), r.getLod(), deco);
+		task.submit(meshingPool);
+		meshesInProgress.put(r, task);
+	}
+	
+	/**
+	 * Checks whether the given region coordinates are within range of the
+	 * player's Region.
+	 * 
+	 * @param x the region coordinate in x
+	 * @param z the region coordinate in z
+	 * @return whether the coordinates are in range
+	 */
+	private boolean inRange(int x, int z) {
+		return x >= playerRegion.x - range && x <= playerRegion.x + range &&
+				z >= playerRegion.z - range && z <= playerRegion.z + range;
 	}
 	
 	/**
 	 * Prunes any Regions and MapCoords from queues and the Map if they are
-	 * not within range of the player.
+	 * not within range of the player. Worker tasks generating or meshing
+	 * anything pruned are cancelled. Only needs to be done when the player
+	 * enters a new Region.
 	 */
 	private void pruneMap() {
 		Collection<Region> regionsToRemove = new LinkedList<Region>();
 		Collection<MapCoord> coordsToRemove = new LinkedList<MapCoord>();
+		Collection<MapCoord> coordsToCancel = new LinkedList<MapCoord>();
 		
 		for (Region r : map.values()) {
-			if (r.getX() < playerRegion.x - range || r.getX() > playerRegion.x + range ||
-					r.getZ() < playerRegion.z - range || r.getZ() > playerRegion.z + range) {
+			if (!inRange(r.getX(), r.getZ())) {
 				regionsToRemove.add(r);
 			}
 		}
 		
 		for (MapCoord coord : toCreate) {
-			if (coord.x < playerRegion.x - range || coord.x > playerRegion.x + range ||
-				coord.z < playerRegion.z - range || coord.z > playerRegion.z + range) {
+			if (!inRange(coord.x, coord.z)) {
 				coordsToRemove.add(coord);
 			}
 		}
+		
+		for (MapCoord coord : regionsInProgress.keySet()) {
+			if (!inRange(coord.x, coord.z)) {
+				coordsToCancel.add(coord);
+			}
+		}
 
+		if (!regionsToRemove.isEmpty()) renderListChanged = true;
+		
 		for (Region r : regionsToRemove) {
 			map.remove(new MapCoord(r.getX(), r.getZ(), -1));
+			grid[getSlot(r.getX(), r.getZ())] = null;
+			removeNeighbors(r);
 			waitingForNeighbors.remove(r);
 			toCreateMesh.remove(r);
+			meshesToLoad.remove(r);
+			
+			WorkerTask meshCreator = meshesInProgress.remove(r);
+			if (meshCreator != null) meshCreator.cancel();
+			
 			r.dispose();
 		}
 		
 		for (MapCoord coord : coordsToRemove) {
 			toCreate.remove(coord);
 		}
+		
+		for (MapCoord coord : coordsToCancel) {
+			regionsInProgress.remove(coord).cancel();
+		}
 	}
 	
 	/**
@@ -441,88 +1232,191 @@ public class Map {
 	 * @param batch the LibGDX ModelBatch for rendering
 	 */
 	private void renderDebug(Environment environment, ModelBatch batch) {
+		int indicators = 0;
+		
 		for (MapCoord coord : toCreate) {
-			ModelInstance box = new ModelInstance(toCreateIndicator);
-			// put box at the Region in world space
-			box.transform.translate(
-					coord.x*Region.WIDTH + Region.WIDTH/2,
-					16,
-					coord.z*Region.WIDTH + Region.WIDTH/2);
 			// box is yellow to red to black, from high priority to low
-			box.materials.get(0).set(ColorAttribute.createDiffuse(new Color(
-							8f/coord.generationPriority,
-							2f/coord.generationPriority,
-							0,
-							1)));
-			batch.render(box, environment);
+			renderIndicator(environment, batch, indicators++, coord.x, coord.z,
+					8f/coord.generationPriority, 2f/coord.generationPriority, 0);
 		}
 	
 		for (Region r : waitingForNeighbors) {
-			ModelInstance box = new ModelInstance(toCreateIndicator);
-			// put box at the Region in world space
-			box.transform.translate(
-					r.getX()*Region.WIDTH + Region.WIDTH/2,
-					16,
-					r.getZ()*Region.WIDTH + Region.WIDTH/2);
 			// box is light blue
-			box.materials.get(0).set(ColorAttribute.createDiffuse(new Color(0, 0.5f, 1, 1)));
-			batch.render(box, environment);
+			renderIndicator(environment, batch, indicators++, r.getX(), r.getZ(), 0, 0.5f, 1);
 		}
 	
 		for (Region r : toCreateMesh) {
-			ModelInstance box = new ModelInstance(toCreateIndicator);
-			// put box at the Region in world space
-			box.transform.translate(
-					r.getX()*Region.WIDTH + Region.WIDTH/2,
-					16,
-					r.getZ()*Region.WIDTH + Region.WIDTH/2);
 			// box is bright teal
-			box.materials.get(0).set(ColorAttribute.createDiffuse(new Color(0, 1, 1, 1)));
-			batch.render(box, environment);
+			renderIndicator(environment, batch, indicators++, r.getX(), r.getZ(), 0, 1, 1);
+		}
+	}
+	
+	/**
+	 * Renders one debug indicator box at a Region. Each indicator rendered in
+	 * an update needs its own ModelInstance, since the batch only draws them
+	 * once it is flushed, so instances are kept and reused by index.
+	 * 
+	 * @param environment the LinGDX Environment for rendering
+	 * @param batch the LibGDX ModelBatch for rendering
+	 * @param index the number of indicators already rendered this update
+	 * @param x the Region's x coordinate
+	 * @param z the Region's z coordinate
+	 * @param r the red component of the box's color
+	 * @param g the green component of the box's color
+	 * @param b the blue component of the box's color
+	 */
+	private void renderIndicator(Environment environment, ModelBatch batch, int index,
+			int x, int z, float r, float g, float b) {
+		if (index == debugIndicators.size()) {
+			debugIndicators.add(new ModelInstance(toCreateIndicator));
+		}
+		ModelInstance box = debugIndicators.get(index);
+		
+		// put box at the Region in world space
+		box.transform.setToTranslation(
+				x*Region.WIDTH + Region.WIDTH/2,
+				16,
+				z*Region.WIDTH + Region.WIDTH/2);
+		((ColorAttribute)box.materials.get(0).get(ColorAttribute.Diffuse)).color.set(r, g, b, 1);
+		batch.render(box, environment);
+	}
+	
+	/**
+	 * A task for one of the worker pools, which can be cancelled by the main
+	 * thread. A task cancelled while it is running counts as stale in its
+	 * pool until it actually stops, so its thread isn't handed a new task in
+	 * the meantime (see staleGenerations and staleMeshings).
+	 */
+	private abstract static class WorkerTask implements Runnable {
+		private static final int QUEUED = 0, RUNNING = 1, FINISHED = 2, CANCELLED = 3, STALE = 4;
+		
+		private final AtomicInteger state = new AtomicInteger(QUEUED);
+		private final AtomicInteger staleTasks;
+		private Future<?> future;
+		
+		/**
+		 * Constructs a task which hasn't been submitted yet.
+		 * 
+		 * @param staleTasks the count of stale tasks in the pool this task
+		 *        will be submitted to
+		 */
+		public WorkerTask(AtomicInteger staleTasks) {
+			this.staleTasks = staleTasks;
 		}
+		
+		/**
+		 * Submits this task to a pool.
+		 * 
+		 * @param pool the pool to run this task
+		 */
+		public void submit(ThreadPoolExecutor pool) {
+			future = pool.submit(this);
+		}
+		
+		/**
+		 * Cancels this task, interrupting its thread if it is running, in
+		 * which case it is stale until work() returns.
+		 */
+		public void cancel() {
+			future.cancel(true);
+			
+			// the task may be starting or finishing at the same time, so
+			// retry until the state is settled one way or the other
+			while (true) {
+				int current = state.get();
+				if (current == QUEUED) {
+					if (state.compareAndSet(QUEUED, CANCELLED)) return;
+				} else if (current == RUNNING) {
+					if (state.compareAndSet(RUNNING, STALE)) {
+						staleTasks.incrementAndGet();
+						return;
+					}
+				} else {
+					return;
+				}
+			}
+		}
+		
+		@Override public final void run() {
+			if (!state.compareAndSet(QUEUED, RUNNING)) return;
+			try {
+				work();
+			} finally {
+				// cancelled while running, so it was counted as stale
+				if (!state.compareAndSet(RUNNING, FINISHED)) staleTasks.decrementAndGet();
+			}
+		}
+		
+		/**
+		 * Does this task's work, in a worker thread.
+		 */
+		protected abstract void work();
 	}
 	
 	/**
 	 * Creates a Region at a given location.
 	 */
-	private class RegionCreator extends Thread {
+	private class RegionCreator extends WorkerTask {
 		private final MapCoord coords;
 		
 		public RegionCreator(MapCoord coords) {
+			super(staleGenerations);
 			this.coords = coords;
 		}
 		
-		public void run() {
+		@Override protected void work() {
+			long start = System.nanoTime();
 			try {
-				newRegions.put(new Region(coords.x, coords.z, seed, playerRegion.distance(coords)));
-				activeThreads--;
+				newRegions.put(new Region(coords.x, coords.z, seed, coords.generationPriority));
+				generationNanos.addAndGet(System.nanoTime() - start);
+				generationCount.incrementAndGet();
 			} catch (InterruptedException e) {
-				System.err.println("Thread interrupted when creating a region at (" + coords.x + ", " + coords.z + ")");
+				// cancelled by pruneMap, the coordinate is no longer in range
+			} catch (RuntimeException e) {
+				System.err.println("Failed to create a region at (" + coords.x + ", " + coords.z + ")");
+				e.printStackTrace();
+				failedRegions.offer(coords);
 			}
 		}
 	}
 	
 	/**
-	 * Meshes a Region at a given location.
+	 * Meshes some sections of a Region at a given location and level of
+	 * detail, and bakes its deco layer if asked to.
 	 */
-	private class RegionMeshCreator extends Thread {
+	private class RegionMeshCreator extends WorkerTask {
 		private final Region r;
 		private final Neighborhood n;
+		private final int sections;
+		private final int lod;
+		private final boolean deco;
 		
-		public RegionMeshCreator(Region r, Neighborhood n) {
+		public RegionMeshCreator(Region r, Neighborhood n, int sections, int lod, boolean deco) {
+			super(staleMeshings);
 			this.r = r;
 			this.n = n;
+			this.sections = sections;
+			this.lod = lod;
+			this.deco = deco;
 		}
 		
-		public void run() {
+		@Override protected void work() {
+			long start = System.nanoTime();
 			try {
 				if (n.isComplete()) {
-					r.createMesh(n);
+					r.createMesh(n, sections, lod, deco);
 					newMeshes.put(r);
-					activeThreads--;
+					meshingNanos.addAndGet(System.nanoTime() - start);
+					meshingCount.incrementAndGet();
+				} else {
+					failedMeshes.offer(r);
 				}
 			} catch (InterruptedException e) {
-				System.err.println("Thread interrupted when meshing a region at (" + r.getX() + ", " + r.getZ() + ")");
+				// cancelled by pruneMap, the Region is no longer in the Map
+			} catch (RuntimeException e) {
+				System.err.println("Failed to mesh a region at (" + r.getX() + ", " + r.getZ() + ")");
+				e.printStackTrace();
+				failedMeshes.offer(r);
 			}
 		}
 	}
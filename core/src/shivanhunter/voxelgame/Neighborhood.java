@@ -46,6 +46,52 @@ public class Neighborhood {
 				northwest != null);
 	}
 	
+	/**
+	 * Gets the height of the lowest non-opaque cell in any Region of this
+	 * Neighborhood. Assumes the Neighborhood is complete.
+	 * 
+	 * @return the lowest non-opaque y index
+	 */
+	public int getOpenBottom() {
+		return Math.min(center.getOpenBottom(),
+				Math.min(Math.min(Math.min(north.getOpenBottom(), northeast.getOpenBottom()),
+						Math.min(east.getOpenBottom(), southeast.getOpenBottom())),
+				Math.min(Math.min(south.getOpenBottom(), southwest.getOpenBottom()),
+						Math.min(west.getOpenBottom(), northwest.getOpenBottom()))));
+	}
+	
+	/**
+	 * Gets the height just above the highest opaque cell in any Region of
+	 * this Neighborhood. Assumes the Neighborhood is complete.
+	 * 
+	 * @return one more than the highest opaque y index
+	 */
+	public int getSolidTop() {
+		return Math.max(center.getSolidTop(),
+				Math.max(Math.max(Math.max(north.getSolidTop(), northeast.getSolidTop()),
+						Math.max(east.getSolidTop(), southeast.getSolidTop())),
+				Math.max(Math.max(south.getSolidTop(), southwest.getSolidTop()),
+						Math.max(west.getSolidTop(), northwest.getSolidTop()))));
+	}
+	
+	/**
+	 * Gets one of the Regions in this Neighborhood by its position relative
+	 * to the center Region. North is positive z and east is positive x.
+	 * 
+	 * @param dx the Region's offset from the center in x, from -1 to 1
+	 * @param dz the Region's offset from the center in z, from -1 to 1
+	 * @return the Region at the given offset
+	 */
+	public Region getRegion(int dx, int dz) {
+		if (dx < 0) {
+			return dz < 0 ? southwest : (dz > 0 ? northwest : west);
+		} else if (dx > 0) {
+			return dz < 0 ? southeast : (dz > 0 ? northeast : east);
+		} else {
+			return dz < 0 ? south : (dz > 0 ? north : center);
+		}
+	}
+	
 	public byte get(int x, int y, int z) {
 		boolean bNorth = false, bSouth = false, bEast = false, bWest = false;
 		
@@ -54,7 +100,7 @@ public class Neighborhood {
 				y < 0 || y >= Region.HEIGHT)
 			return 0; //TODO error
 		
-		if (x > 0 && x < Region.WIDTH && z > 0 && z < Region.WIDTH) {
+		if (x >= 0 && x < Region.WIDTH && z >= 0 && z < Region.WIDTH) {
 			return center.get(x, y, z);
 		}
 		
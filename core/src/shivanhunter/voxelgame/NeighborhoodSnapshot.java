@@ -0,0 +1,320 @@
+package shivanhunter.voxelgame;
+
+import java.util.Arrays;
+
+/**
+ * A copy of the block data around a Region, taken at the start of meshing,
+ * stored in one flat array.
+ *
+ * The snapshot covers the Region plus a border of BORDER cells from its
+ * Neighborhood in x and z, and one extra layer above and below the world in
+ * y. The layer above is air and the layer below is opaque, matching how
+ * meshing treats the top and bottom of the world: top faces are always
+ * drawn, bottom faces never are. With this padding, every cell that
+ * meshing looks at is in the array, so lookups need no bounds checks and no
+ * choice of neighboring Region, and the neighbors are not read again once
+ * the copy is taken.
+ *
+ * Cells are addressed either by Region indices, or by an index into the
+ * array from index(); neighboring cells are STRIDE_X, STRIDE_Y and STRIDE_Z
+ * apart.
+ *
+ * The layout is linear with z innermost, matching Region's rows, so the
+ * copy is a row at a time and OcclusionTable reads it in order. Greedy
+ * meshing doesn't scan small neighborhoods here: faces come from the
+ * opacity bitsets and AO from OcclusionTable. A tiled or Z-order layout
+ * hasn't been tried or measured here, and would make the row copies less
+ * sequential. The only layout change measured so far was a compact x stride
+ * for OcclusionTable, which timed createMesh on the same Regions and was no
+ * faster, so it was left out.
+ *
+ * The snapshot also copies the opacity bitsets of the Region's columns and
+ * of the columns next to it, so that a run of cells' opacity can be read at
+ * once with getOpaqueBits(). For meshing at a lower level of detail, the
+ * bitsets can be copied on their own and downsampled.
+ *
+ * Each thread has its own NeighborhoodSnapshot, retrieved using get(), which
+ * is refilled for every Region that thread meshes.
+ */
+public class NeighborhoodSnapshot {
+	/**
+	 * Number of cells around the Region included in the snapshot in x and z.
+	 * Large enough for ambient occlusion.
+	 */
+	public static final int BORDER = OcclusionTable.BORDER;
+
+	/**
+	 * Number of cells covered in x and z.
+	 */
+	public static final int SIZE = Region.WIDTH + 2*BORDER;
+
+	/**
+	 * Distances between neighboring cells in the array along each axis.
+	 */
+	public static final int STRIDE_Z = 1,
+			STRIDE_Y = SIZE*STRIDE_Z,
+			STRIDE_X = (Region.HEIGHT+2)*STRIDE_Y;
+
+	// block ID used for the layer below the world
+	private static final byte BELOW_WORLD = 1;
+
+	// one snapshot per thread, since meshing happens in several threads at once
+	private static final ThreadLocal<NeighborhoodSnapshot> snapshots =
+			new ThreadLocal<NeighborhoodSnapshot>() {
+		@Override protected NeighborhoodSnapshot initialValue() {
+			return new NeighborhoodSnapshot();
+		}
+	};
+
+	private final byte[] cells = new byte[SIZE*STRIDE_X];
+
+	// opacity bitsets of the columns within one cell of the Region, see
+	// Region.copyColumn()
+	private static final int COLUMNS_SIZE = Region.WIDTH + 2;
+	private final long[] columns = new long[COLUMNS_SIZE*COLUMNS_SIZE*Region.COLUMN_WORDS];
+
+	// heights of the Neighborhood, see Region.getOpenBottom()/getSolidTop()
+	private int openBottom, solidTop;
+
+	/**
+	 * Gets the NeighborhoodSnapshot for the current thread. Its contents are
+	 * those of the last Neighborhood it copied.
+	 *
+	 * @return the current thread's NeighborhoodSnapshot
+	 */
+	public static NeighborhoodSnapshot get() {
+		return snapshots.get();
+	}
+
+	/**
+	 * Copies the block data of the given Neighborhood into this snapshot.
+	 *
+	 * @param n the Neighborhood to copy (assumed to be complete)
+	 */
+	public void copy(Neighborhood n) {
+		openBottom = n.getOpenBottom();
+		solidTop = n.getSolidTop();
+
+		for (int x = -BORDER; x < Region.WIDTH + BORDER; ++x) {
+			// which Region this x is in, and the index within that Region
+			int regionX = x < 0 ? -1 : (x < Region.WIDTH ? 0 : 1);
+			int localX = x - regionX*Region.WIDTH;
+
+			Region south = n.getRegion(regionX, -1),
+					middle = n.getRegion(regionX, 0),
+					north = n.getRegion(regionX, 1);
+
+			// every cell below the lowest non-opaque cell is opaque, and so
+			// is the layer below the world
+			int start = index(x, -1, -BORDER);
+			Arrays.fill(cells, start, start + (openBottom+1)*STRIDE_Y, BELOW_WORLD);
+
+			for (int y = openBottom; y < Region.HEIGHT; ++y) {
+				int index = index(x, y, -BORDER);
+				south.copyRow(localX, y, Region.WIDTH - BORDER, BORDER, cells, index);
+				middle.copyRow(localX, y, 0, Region.WIDTH, cells, index + BORDER);
+				north.copyRow(localX, y, 0, BORDER, cells, index + BORDER + Region.WIDTH);
+			}
+
+			// the layer above the world is air
+			start = index(x, Region.HEIGHT, -BORDER);
+			Arrays.fill(cells, start, start + STRIDE_Y, (byte)0);
+		}
+
+		copyColumns(n);
+	}
+
+	/**
+	 * Copies only the opacity bitsets of the given Neighborhood into this
+	 * snapshot, leaving the block data and heights as they were.
+	 *
+	 * @param n the Neighborhood to copy (assumed to be complete)
+	 */
+	public void copyColumns(Neighborhood n) {
+		for (int x = -1; x <= Region.WIDTH; ++x) {
+			int regionX = x < 0 ? -1 : (x < Region.WIDTH ? 0 : 1);
+			int localX = x - regionX*Region.WIDTH;
+
+			for (int z = -1; z <= Region.WIDTH; ++z) {
+				int regionZ = z < 0 ? -1 : (z < Region.WIDTH ? 0 : 1);
+				n.getRegion(regionX, regionZ).copyColumn(localX, z - regionZ*Region.WIDTH,
+						columns, columnIndex(x, z));
+			}
+		}
+	}
+
+	/**
+	 * Downsamples the copied opacity bitsets for meshing at a lower level of
+	 * detail. The Region is divided into cells scale blocks wide on every
+	 * axis, and every block in a cell becomes opaque if at least half of the
+	 * cell's blocks are, or air otherwise. The block data is not changed.
+	 *
+	 * The columns around the Region become air from skirtBottom up, so faces
+	 * on the Region's sides are found there, as a skirt hiding gaps to
+	 * neighbors at other levels of detail. Below skirtBottom they become
+	 * opaque, so sections buried under every neighbor's surface stay empty.
+	 *
+	 * @param scale the width of a cell, a power of two dividing Region.WIDTH
+	 * @param skirtBottom the lowest height with faces on the Region's sides
+	 */
+	public void downsample(int scale, int skirtBottom) {
+		long cellBits = (1L << scale) - 1;
+		int half = scale*scale*scale/2;
+
+		for (int x = 0; x < Region.WIDTH; x += scale) {
+			for (int z = 0; z < Region.WIDTH; z += scale) {
+				for (int word = 0; word < Region.COLUMN_WORDS; ++word) {
+					long bits = 0;
+
+					// count each cell's opaque blocks across its columns
+					for (int shift = 0; shift < 64; shift += scale) {
+						int count = 0;
+						for (int i = x; i < x + scale; ++i) {
+							for (int k = z; k < z + scale; ++k) {
+								count += Long.bitCount((columns[columnIndex(i, k) + word] >>> shift) & cellBits);
+							}
+						}
+						if (count >= half) bits |= cellBits << shift;
+					}
+
+					for (int i = x; i < x + scale; ++i) {
+						for (int k = z; k < z + scale; ++k) {
+							columns[columnIndex(i, k) + word] = bits;
+						}
+					}
+				}
+			}
+		}
+
+		// turn the columns around the Region into skirts
+		for (int i = -1; i <= Region.WIDTH; ++i) {
+			setSkirtColumn(i, -1, skirtBottom);
+			setSkirtColumn(i, Region.WIDTH, skirtBottom);
+			setSkirtColumn(-1, i, skirtBottom);
+			setSkirtColumn(Region.WIDTH, i, skirtBottom);
+		}
+	}
+
+	/**
+	 * Makes the cells of a copied column opaque below the given height and
+	 * air from it up.
+	 *
+	 * @param x the x index of the column
+	 * @param z the z index of the column
+	 * @param height the height of the column's lowest air cell
+	 */
+	private void setSkirtColumn(int x, int z, int height) {
+		int start = columnIndex(x, z);
+		for (int word = 0; word < Region.COLUMN_WORDS; ++word) {
+			int bits = height - word*64;
+			columns[start + word] = bits >= 64 ? -1L : (bits <= 0 ? 0L : (1L << bits) - 1);
+		}
+	}
+
+	/**
+	 * Gets the opacity of SECTION_HEIGHT cells of a column, starting at the
+	 * given height, as an int with bit i set if the cell at y+i is opaque. As
+	 * with the block data, cells below the world are opaque and cells above
+	 * it are not.
+	 *
+	 * @param x the x index of the column, at most one cell outside the Region
+	 * @param z the z index of the column, at most one cell outside the Region
+	 * @param y the height of the lowest cell, at least -1
+	 * @return the opacity bits of the cells
+	 */
+	public int getOpaqueBits(int x, int z, int y) {
+		int column = columnIndex(x, z);
+		int word = y >> 6, shift = y & 63;
+
+		long bits = getColumnWord(column, word) >>> shift;
+		if (shift > 64 - Region.SECTION_HEIGHT) {
+			// the cells continue into the next word
+			bits |= getColumnWord(column, word+1) << (64 - shift);
+		}
+
+		return (int)(bits & ((1L << Region.SECTION_HEIGHT) - 1));
+	}
+
+	/**
+	 * Gets one word of a copied column's opacity bitset. Words below the
+	 * world are all opaque and words above it are all air.
+	 *
+	 * @param column the index of the column, as returned by columnIndex()
+	 * @param word the index of the word within the column
+	 * @return the word's opacity bits
+	 */
+	private long getColumnWord(int column, int word) {
+		if (word < 0) return -1L;
+		if (word >= Region.COLUMN_WORDS) return 0L;
+		return columns[column + word];
+	}
+
+	/**
+	 * Gets the index in the column array of the first word of the column at
+	 * the given Region indices.
+	 *
+	 * @param x the x index of the column
+	 * @param z the z index of the column
+	 * @return the index of the column's first word
+	 */
+	private static int columnIndex(int x, int z) {
+		return ((x+1)*COLUMNS_SIZE + (z+1))*Region.COLUMN_WORDS;
+	}
+
+	/**
+	 * Gets the index in the snapshot's array of the cell at the given Region
+	 * indices. x and z may be up to BORDER cells outside the Region, and y
+	 * may be one cell outside it.
+	 *
+	 * @param x the x index of the cell
+	 * @param y the y index of the cell
+	 * @param z the z index of the cell
+	 * @return the index of the cell in the array
+	 */
+	public static int index(int x, int y, int z) {
+		return (x+BORDER)*STRIDE_X + (y+1)*STRIDE_Y + (z+BORDER)*STRIDE_Z;
+	}
+
+	/**
+	 * Gets the block data at the given index, as returned by index().
+	 *
+	 * @param index the index of the cell
+	 * @return the block data at the index
+	 */
+	public byte get(int index) {
+		return cells[index];
+	}
+
+	/**
+	 * Gets the block data at the given Region indices. See index() for the
+	 * valid range.
+	 *
+	 * @param x the x index of the cell
+	 * @param y the y index of the cell
+	 * @param z the z index of the cell
+	 * @return the block data at the given indices
+	 */
+	public byte get(int x, int y, int z) {
+		return cells[index(x, y, z)];
+	}
+
+	/**
+	 * Gets the height of the lowest non-opaque cell in the copied
+	 * Neighborhood.
+	 *
+	 * @return the lowest non-opaque y index
+	 */
+	public int getOpenBottom() {
+		return openBottom;
+	}
+
+	/**
+	 * Gets the height just above the highest opaque cell in the copied
+	 * Neighborhood.
+	 *
+	 * @return one more than the highest opaque y index
+	 */
+	public int getSolidTop() {
+		return solidTop;
+	}
+}
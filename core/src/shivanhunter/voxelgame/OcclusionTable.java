@@ -0,0 +1,124 @@
+package shivanhunter.voxelgame;
+
+/**
+ * A summed-volume table of opaque cells around a Region, used to count the
+ * opaque cells in any box in constant time when calculating ambient
+ * occlusion.
+ *
+ * The table covers the Region plus a border of BORDER cells taken from its
+ * Neighborhood in x and z. In y, it only covers the heights that can hold
+ * block faces, plus BORDER cells below them: there are no opaque cells above
+ * the Neighborhood's highest opaque cell, and no face's AO looks further
+ * down. Each entry holds the number of opaque cells in the box from the
+ * table's lowest corner up to (but not including) that entry's cell, so the
+ * count in any box is found from the eight entries at its corners.
+ *
+ * Each thread has its own OcclusionTable, retrieved using get(), which is
+ * rebuilt for every Region that thread meshes.
+ */
+public class OcclusionTable {
+	/**
+	 * Number of cells around the Region included in the table. Boxes may
+	 * extend up to this many cells past the Region's edges in x and z.
+	 */
+	public static final int BORDER = 3;
+
+	// number of cells covered in x and z
+	private static final int SIZE = Region.WIDTH + 2*BORDER;
+
+	// strides of the table, which has one more entry than cells on each axis
+	private static final int STRIDE_Z = 1,
+			STRIDE_Y = (SIZE+1)*STRIDE_Z,
+			STRIDE_X = (Region.HEIGHT+1)*STRIDE_Y;
+
+	// one table per thread, since meshing happens in several threads at once
+	private static final ThreadLocal<OcclusionTable> tables = new ThreadLocal<OcclusionTable>() {
+		@Override protected OcclusionTable initialValue() {
+			return new OcclusionTable();
+		}
+	};
+
+	private final int[] sums = new int[(SIZE+1)*STRIDE_X];
+	
+	// the range of heights covered by the table, from low to high-1
+	private int low, high;
+
+	/**
+	 * Gets the OcclusionTable for the current thread. Its contents are those
+	 * of the last Neighborhood it was built from.
+	 *
+	 * @return the current thread's OcclusionTable
+	 */
+	public static OcclusionTable get() {
+		return tables.get();
+	}
+
+	/**
+	 * Fills the table with the opaque cells of the given snapshot of a
+	 * Neighborhood.
+	 *
+	 * @param blocks the snapshot to build the table from
+	 */
+	public void build(NeighborhoodSnapshot blocks) {
+		low = Math.max(0, blocks.getOpenBottom() - BORDER);
+		high = Math.max(low, blocks.getSolidTop());
+		int layers = high - low;
+
+		// entries at 0 on any axis stay 0: they count an empty box
+		for (int x = 1; x <= SIZE; ++x) {
+			for (int y = 1; y <= layers; ++y) {
+				int index = x*STRIDE_X + y*STRIDE_Y + STRIDE_Z;
+				int cell = NeighborhoodSnapshot.index(x-1-BORDER, low+y-1, -BORDER);
+
+				// opaque cells in this row so far
+				int row = 0;
+
+				for (int z = 1; z <= SIZE; ++z, ++index, ++cell) {
+					if (Region.isOpaque(blocks.get(cell))) row++;
+
+					// add this row to the sums of the rows below and behind it
+					sums[index] = row
+							+ sums[index - STRIDE_X]
+							+ sums[index - STRIDE_Y]
+							- sums[index - STRIDE_X - STRIDE_Y];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the opaque cells in a box, including its lower bounds but not
+	 * its upper bounds. x and z are Region indices and must be within BORDER
+	 * cells of the Region. y may be above the table, or out of the world,
+	 * since there are no opaque cells there. Cells more than BORDER below the
+	 * Neighborhood's lowest non-opaque cell are not counted, but no box
+	 * around a block face reaches them.
+	 *
+	 * @param x0 the lower bound of the box in x
+	 * @param y0 the lower bound of the box in y
+	 * @param z0 the lower bound of the box in z
+	 * @param x1 the upper bound of the box in x
+	 * @param y1 the upper bound of the box in y
+	 * @param z1 the upper bound of the box in z
+	 * @return the number of opaque cells in the box
+	 */
+	public int count(int x0, int y0, int z0, int x1, int y1, int z1) {
+		if (y0 < low) y0 = low;
+		if (y1 > high) y1 = high;
+		if (y0 >= y1) return 0;
+
+		int lowX = (x0+BORDER)*STRIDE_X, highX = (x1+BORDER)*STRIDE_X,
+				lowY = (y0-low)*STRIDE_Y, highY = (y1-low)*STRIDE_Y,
+				lowZ = (z0+BORDER)*STRIDE_Z, highZ = (z1+BORDER)*STRIDE_Z;
+
+		// inclusion-exclusion over the eight corners of the box
+		return sums[highX + highY + highZ]
+				- sums[lowX + highY + highZ]
+				- sums[highX + lowY + highZ]
+				- sums[highX + highY + lowZ]
+				+ sums[lowX + lowY + highZ]
+				+ sums[lowX + highY + lowZ]
+				+ sums[highX + lowY + lowZ]
+				- sums[lowX + lowY + lowZ];
+	}
+}
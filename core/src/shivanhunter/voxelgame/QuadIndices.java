@@ -0,0 +1,94 @@
+package shivanhunter.voxelgame;
+
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.graphics.g3d.Material;
+import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
+
+/**
+ * A single, precomputed index array shared by every quad-based mesh.
+ *
+ * Every Region and VoxelModel mesh is a list of quads with 4 vertices each,
+ * drawn as two triangles, so their indices always follow the same repeating
+ * pattern (0, 1, 2, 2, 3, 0, then 4, 5, 6, 6, 7, 4, and so on). Rather than
+ * building that pattern again for every mesh, it is built once here, large
+ * enough for the biggest mesh short indices can address, and each mesh uses
+ * as much of it as it needs.
+ *
+ * Lists of quads too big for one mesh are split into several meshes by
+ * addParts(), each of which is a separate part of the same Model.
+ */
+public class QuadIndices {
+	/*
+	 * Constants: number of verts and indices in a quad
+	 */
+	private static final int VERTS = 4, INDS = 6;
+
+	/**
+	 * The largest number of quads a mesh can have. Indices are shorts, which
+	 * OpenGL reads as unsigned, so a mesh may have up to 65536 vertices.
+	 */
+	public static final int MAX_QUADS = 65536/VERTS;
+
+	// indices for MAX_QUADS quads, shared by every mesh
+	private static final short[] indices = new short[MAX_QUADS*INDS];
+
+	static {
+        // each polygon is 6 indices for each 4 vertices: two triangles
+        // for each quad
+        for (int i = 0; i < MAX_QUADS; ++i) {
+        	indices[i*INDS + 0] = (short)(i*VERTS + 0);
+        	indices[i*INDS + 1] = (short)(i*VERTS + 1);
+        	indices[i*INDS + 2] = (short)(i*VERTS + 2);
+
+        	indices[i*INDS + 3] = (short)(i*VERTS + 2);
+        	indices[i*INDS + 4] = (short)(i*VERTS + 3);
+        	indices[i*INDS + 5] = (short)(i*VERTS + 0);
+        }
+	}
+
+	/**
+	 * Sets the indices of the given mesh to draw the given number of quads.
+	 * The mesh must have been created with room for at least numQuads*6
+	 * indices. Throws an IllegalArgumentException if numQuads is more than
+	 * MAX_QUADS.
+	 *
+	 * @param mesh the mesh whose indices to set
+	 * @param numQuads the number of quads in the mesh
+	 */
+	public static void setIndices(Mesh mesh, int numQuads) {
+		if (numQuads > MAX_QUADS) {
+			throw new IllegalArgumentException();
+		}
+
+		mesh.setIndices(indices, 0, numQuads*INDS);
+	}
+
+	/**
+	 * Adds a list of quads to the Model under construction in a ModelBuilder,
+	 * as one mesh part for every MAX_QUADS quads, so that any number of quads
+	 * can be drawn with short indices. Nothing is added if there are no
+	 * quads.
+	 *
+	 * @param builder the ModelBuilder to add parts to, between begin() and end()
+	 * @param vertices the vertices of the quads, four vertices per quad
+	 * @param attributes the format of the vertices
+	 * @param material the material for every part
+	 */
+	public static void addParts(ModelBuilder builder, float[] vertices,
+			VertexAttributes attributes, Material material) {
+		int floatsPerQuad = attributes.vertexSize/4*VERTS;
+		int numQuads = vertices.length/floatsPerQuad;
+
+		for (int first = 0; first < numQuads; first += MAX_QUADS) {
+			int partQuads = Math.min(MAX_QUADS, numQuads - first);
+
+			Mesh mesh = new Mesh(true, partQuads*VERTS, partQuads*INDS, attributes);
+			mesh.setVertices(vertices, first*floatsPerQuad, partQuads*floatsPerQuad);
+			setIndices(mesh, partQuads);
+
+			builder.part("", mesh, GL20.GL_TRIANGLES, material);
+		}
+	}
+}
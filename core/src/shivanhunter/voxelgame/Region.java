@@ -1,15 +1,13 @@
 package shivanhunter.voxelgame;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 import shivanhunter.voxelgame.VoxelModel.Axis;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.files.FileHandle;
-import com.badlogic.gdx.graphics.GL20;
-import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.VertexAttribute;
 import com.badlogic.gdx.graphics.VertexAttributes;
 import com.badlogic.gdx.graphics.g3d.Environment;
@@ -19,13 +17,14 @@ import com.badlogic.gdx.graphics.g3d.ModelBatch;
 import com.badlogic.gdx.graphics.g3d.ModelInstance;
 import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
 import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
+import com.badlogic.gdx.math.Frustum;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 
 /**
  * Represents a small playable area of the game world. Contains block data for
- * the area, as well as a mesh based on the data and a list of ModelInstances
- * to display decoration (grass, flowers etc). 
+ * the area, as well as a mesh based on the data and a second mesh to display
+ * decoration (grass, flowers etc). 
  */
 public class Region implements Comparable<Region> {
 	// region size consts
@@ -33,14 +32,55 @@ public class Region implements Comparable<Region> {
 	public static final int WIDTH = 16;
 	public static final int HEIGHT = 256;
 	
-	// raw block data used for collision and mesh creation
-	// is a byte[WIDTH][HEIGHT][WIDTH] returned from regionGenerator
-	private byte[][][] data;
+	/*
+	 * Region meshes are split into sections, each SECTION_HEIGHT blocks tall,
+	 * which are meshed, uploaded and rendered separately. After blocks
+	 * change, only the sections near the change are meshed again. Sets of
+	 * sections are stored as bitmasks, with bit n for the nth section from
+	 * the bottom. HEIGHT must be a multiple of SECTION_HEIGHT, with no more
+	 * than 32 sections.
+	 */
+	public static final int SECTION_HEIGHT = 16;
+	public static final int SECTIONS = HEIGHT/SECTION_HEIGHT;
+	public static final int ALL_SECTIONS = (int)((1L << SECTIONS) - 1);
+	
+	/*
+	 * Opacity is also kept as one bitset per column of blocks, with bit y of
+	 * a column set if the block at height y is opaque. Each column is
+	 * COLUMN_WORDS longs, so HEIGHT must be a multiple of 64. Meshing uses
+	 * these to find whole columns of faces at once with shifts and ANDs.
+	 */
+	public static final int COLUMN_WORDS = HEIGHT/64;
+	
+	/*
+	 * Far Regions are meshed at a lower level of detail. At LOD n, the
+	 * opacity bitsets are downsampled into cells 2^n blocks wide, and meshed
+	 * without ambient occlusion, which lets greedy meshing merge far more
+	 * faces. LOD meshes have faces on the Region's sides down to just below
+	 * the lowest surface in the Neighborhood, as a skirt hiding any gaps to
+	 * neighbors at other levels. LOD 0 is full detail.
+	 * WIDTH and SECTION_HEIGHT must be multiples of the coarsest cell size.
+	 */
+	public static final int LOD_LEVELS = 3;
+	
+	/*
+	 * raw block data used for mesh creation, a byte[WIDTH][HEIGHT][WIDTH]
+	 * returned from regionGenerator. Regions which aren't being meshed can
+	 * compress their data into compressedData (see compressData()), and far
+	 * Regions which nothing needs the data of can release it altogether
+	 * (see releaseData()). Either way, the raw data is restored the next
+	 * time it is needed, by decompressing it or by generating it again from
+	 * the seed. Regions whose blocks were set are never released, since
+	 * their changes can't be generated again.
+	 */
+	private volatile byte[][][] data;
+	private volatile byte[] compressedData;
+	private boolean modified = false;
 	
-	// data for ambient occlusion lighting applied to models
-	// based on the AO of the quad on the "floor" of the cell, or if none, the
-	// AO of the cell below it
-	private float[][][] modelAO;
+	// total time spent and number of times block data was decompressed,
+	// across all Regions
+	private static final AtomicLong decompressNanos = new AtomicLong();
+	private static final AtomicLong decompressCount = new AtomicLong();
 	
 	// region coordinates (not block coordinates) for this region
 	private final int regionX, regionZ;
@@ -48,17 +88,59 @@ public class Region implements Comparable<Region> {
 	// seed for generating this Region (should be the same across all Regions)
 	private final long seed;
 	
+	// the lowest non-opaque cell, and one above the highest opaque cell. Any
+	// block faces in this Region are between these heights.
+	private int openBottom, solidTop;
+	
+	// opacity bitsets for each column, COLUMN_WORDS longs per column,
+	// ordered by x then z
+	private final long[] opaqueColumns = new long[WIDTH*WIDTH*COLUMN_WORDS];
+	
 	// importance of this Region (used by Map)
 	public float generationPriority;
 	
+	// number of the eight adjacent Regions currently in the Map (used by Map)
+	public int neighborCount = 0;
+	
+	// whether this Region is queued for meshing, being meshed, or has a mesh
+	// waiting to be loaded (used by Map)
+	public boolean meshPending = false;
+	
+	// level of detail to mesh this Region at (used by Map)
+	private int lod = 0;
+	
 	/* 
-	 * polygon data for this Region's model. Created in a worker thread. Since
-	 * LibGDX Models cannot be instantiated in worker threads (as they require
-	 * an OpenGL context), this data must be passed to the main thread so the
-	 * Region can finish creating its mesh.
+	 * polygon data for each section of this Region's model. Created in a
+	 * worker thread. Since LibGDX Models cannot be instantiated in worker
+	 * threads (as they require an OpenGL context), this data must be passed
+	 * to the main thread so the Region can finish creating its mesh.
+	 * 
+	 * dirtySections are the sections whose blocks have changed since they
+	 * were last given to a worker thread, and are only used in the main
+	 * thread. sectionsToLoad are the sections meshed by the worker thread
+	 * which are not loaded yet.
 	 */
-	private float[] vertices = null;
-	private short[] indices = null;
+	private float[][] sectionVertices = new float[SECTIONS][];
+	private int dirtySections = ALL_SECTIONS;
+	private int sectionsToLoad = 0;
+	
+	/*
+	 * Which faces of each section are connected through non-opaque cells,
+	 * used by SectionVisibility. Found in a worker thread along with the
+	 * section's vertices, and handed over when the section is loaded.
+	 * Sections that haven't been loaded yet count as open air.
+	 */
+	private long[] newSectionConnections = new long[SECTIONS];
+	private long[] sectionConnections = new long[SECTIONS];
+	
+	/*
+	 * Vertices of the deco layer, baked in a worker thread along with the
+	 * sections, and handed over from newDecoVertices once the last section
+	 * is loaded. They are only kept until loadDecoLayer() uploads them, so
+	 * a layer which was unloaded is baked again by meshing the Region.
+	 */
+	private float[] newDecoVertices;
+	private float[] decoVertices;
 	
 	/* 
 	 * Model(s) for decoration layers. Models are loaded early and are stored
@@ -71,13 +153,27 @@ public class Region implements Comparable<Region> {
 	// simple diffuse material used across all Regions
 	private Material mat;
 	
-	// Model representing the Region's block data
-	private Model model;
-	// instance of the Model to render
-	private ModelInstance instance;
+	// Models representing each section of the Region's block data, or null
+	// for sections with no faces
+	private Model[] sectionModels = new Model[SECTIONS];
+	// instances of the Models to render
+	private ModelInstance[] sectionInstances = new ModelInstance[SECTIONS];
+	// whether every section has been loaded at least once
+	private boolean meshLoaded = false;
+	
+	// heights of the box around the loaded sections, used for culling. The
+	// box covers WIDTH*WIDTH blocks at this Region's position.
+	private int boundsBottom = 0, boundsTop = 0;
 	
-	// collection of instances of deco models to render as a deco layer
-	private Collection<ModelInstance> decoLayer = new LinkedList<ModelInstance>();
+	/*
+	 * The deco layer: every deco model in the Region, baked into one Model
+	 * with each model's rotation and AO, so it can be rendered at once. It is
+	 * only loaded while deco is being drawn, and is null otherwise, or if the
+	 * Region has no deco. decoLoaded is set while the layer is loaded.
+	 */
+	private Model decoModel;
+	private ModelInstance decoInstance;
+	private boolean decoLoaded = false;
 	
 	/**
 	 * Creates and generates a new Region at the given coordinates, with the
@@ -92,25 +188,20 @@ public class Region implements Comparable<Region> {
 	 * @param regionZ the region's Z coordinate
 	 * @param seed the seed to use for generation
 	 * @param generationPriority the region's importance (distance from the player)
+	 * @throws InterruptedException if generation was cancelled
 	 */
-	public Region(int regionX, int regionZ, long seed, float generationPriority) {
+	public Region(int regionX, int regionZ, long seed, float generationPriority)
+			throws InterruptedException {
 		long nanoTime = System.nanoTime();
 		this.regionX = regionX;
 		this.regionZ = regionZ;
 		this.seed = seed;
 		this.generationPriority = generationPriority;
 		
-		modelAO = new float[WIDTH][HEIGHT][WIDTH];
-		
-		for (int i = 0; i < WIDTH; ++i) {
-			for (int j = 0; j < HEIGHT; ++j) {
-				for (int k = 0; k < WIDTH; ++k) {
-					modelAO[i][j][k] = 1;
-				}
-			}
-		}
-		
 		data = new RegionGenerator().generate(regionX*WIDTH, regionZ*WIDTH, seed);
+		scanBlocks();
+		
+		Arrays.fill(sectionConnections, SectionVisibility.ALL_CONNECTED);
 		
 		mat = new Material(ColorAttribute.createDiffuse(1f, 1f, 1f, 1));
 		System.out.println((System.nanoTime() - nanoTime)/1000000000f);
@@ -136,97 +227,558 @@ public class Region implements Comparable<Region> {
 	}
 	
 	/**
-	 * Renders this Region's Model.
+	 * Renders some sections of this Region's Model.
 	 * 
 	 * @param environment the LinGDX Environment for rendering
 	 * @param batch the LibGDX ModelBatch for rendering
-	 * @param drawDeco whether to draw the deco layer's ModelInstances
+	 * @param sections bitmask of the sections to render
+	 * @param drawDeco whether to draw the deco layer, if it is loaded
+	 * @return the number of sections with faces that were rendered
 	 */
-	public void render(Environment environment, ModelBatch batch, boolean drawDeco) {
-		if (instance == null) return;
+	public int render(Environment environment, ModelBatch batch, int sections, boolean drawDeco) {
+		if (!meshLoaded) return 0;
+		
+		int rendered = 0;
+		for (int section = 0; section < SECTIONS; ++section) {
+			if ((sections & (1 << section)) == 0 || sectionInstances[section] == null) continue;
+			batch.render(sectionInstances[section], environment);
+			rendered++;
+		}
 		
-		batch.render(instance, environment);
+		if (drawDeco && decoInstance != null) batch.render(decoInstance, environment);
 		
-		if (drawDeco) {
-			for (ModelInstance i : decoLayer) {
-				batch.render(i, environment);
-			}
+		return rendered;
+	}
+	
+	/**
+	 * Loads the Mesh for one of the sections meshed in a worker thread,
+	 * replacing that section's old Mesh. Should be called after createMesh()
+	 * has finished, until it returns true. Loading sections one at a time
+	 * lets the caller spread the uploads out over several updates. The deco
+	 * layer is unloaded along with the last section, and its new vertices
+	 * (if they were baked) wait for loadDecoLayer(). Indices are shared by
+	 * every mesh and come from QuadIndices, and sections with more quads than
+	 * one mesh can index are split into several meshes.
+	 * 
+	 * @return whether every meshed section is now loaded
+	 */
+	public boolean loadMesh() {
+		if (sectionsToLoad != 0) {
+			int section = Integer.numberOfTrailingZeros(sectionsToLoad);
+			sectionsToLoad &= ~(1 << section);
+			loadSection(section);
 		}
+		
+		if (sectionsToLoad != 0) return false;
+		
+		meshLoaded = true;
+		
+		unloadDecoLayer();
+		decoVertices = newDecoVertices;
+		newDecoVertices = null;
+		return true;
 	}
 	
 	/**
-	 * Loads the Mesh from the vertex and index arrays. Should be called after
-	 * these arrays are populated in a worker thread.
+	 * Loads the Mesh for a section from its vertex array, or removes the
+	 * section's Model if it has no faces.
+	 * 
+	 * @param section the section to load
 	 */
-	public void loadMesh() {
-		Mesh mesh = new Mesh(true, vertices.length, indices.length, new VertexAttributes(
-        		new VertexAttribute(VertexAttributes.Usage.Position, 3, "a_position"),
-        		new VertexAttribute(VertexAttributes.Usage.ColorUnpacked, 3, "a_color"),
-        		new VertexAttribute(VertexAttributes.Usage.Normal, 3, "a_normal")
-        		));
-
-		mesh.setVertices(vertices);
-		mesh.setIndices(indices);
+	private void loadSection(int section) {
+		float[] vertices = sectionVertices[section];
+		sectionVertices[section] = null;
+		sectionConnections[section] = newSectionConnections[section];
 		
-		vertices = null;
-		indices = null;
+		if (sectionModels[section] != null) {
+			sectionModels[section].dispose();
+			sectionModels[section] = null;
+			sectionInstances[section] = null;
+		}
+		
+		if (vertices.length == 0) return;
 		
-		// build a LibGDX Model using mesh and material
+		// build a LibGDX Model using as many meshes as the section needs
 		ModelBuilder builder = new ModelBuilder();
 		builder.begin();
-		builder.part("", mesh, GL20.GL_TRIANGLES, mat);
-		model = builder.end();
-		instance = new ModelInstance(model);
-		instance.transform.translate(regionX*WIDTH, 0, regionZ*WIDTH);
-
-        for (int i = 0; i < WIDTH; ++i) {
-            for (int j = 0; j < HEIGHT; ++j) {
-                for (int k = 0; k < WIDTH; ++k) {
-                	if (data[i][j][k] > 1) {
-                		ModelInstance instance = new ModelInstance(deco[data[i][j][k]-2].getModel());
-                		
-                		instance.transform.translate(
-                				regionX*WIDTH + i + 0.5f,
-                				j,
-                				regionZ*WIDTH + k + 0.5f);
-                		
-                		instance.transform.rotate(0, 1, 0, Noise.get(i, j+1, k, seed, 4)*90);
-                		
-                		instance.materials.get(0).set(ColorAttribute.createDiffuse(
-                				modelAO[i][j][k], modelAO[i][j][k], modelAO[i][j][k], 1));
-                		decoLayer.add(instance);
-                	}
-                }
-            }
-        }
+		QuadIndices.addParts(builder, vertices,
+				PACKED_VERTICES ? packedAttributes : VoxelModel.attributes, mat);
+		sectionModels[section] = builder.end();
+		sectionInstances[section] = new ModelInstance(sectionModels[section]);
+		sectionInstances[section].transform.translate(regionX*WIDTH, 0, regionZ*WIDTH);
+		
+		updateBounds();
+	}
+	
+	/**
+	 * Updates the heights of the bounding box to cover every loaded section
+	 * with faces. The top also covers solidTop plus the size of the coarsest
+	 * LOD cell, which leaves room for coarse cells rounded up past the
+	 * highest block, and for deco models standing on the highest blocks,
+	 * even when those are at the top of the highest section with faces.
+	 */
+	private void updateBounds() {
+		int lowest = SECTIONS, highest = -1;
+		for (int section = 0; section < SECTIONS; ++section) {
+			if (sectionModels[section] == null) continue;
+			lowest = Math.min(lowest, section);
+			highest = section;
+		}
+		
+		if (highest < 0) {
+			boundsBottom = boundsTop = 0;
+			return;
+		}
+		
+		boundsBottom = lowest*SECTION_HEIGHT;
+		boundsTop = Math.max((highest+1)*SECTION_HEIGHT, solidTop + (1 << (LOD_LEVELS-1)));
+	}
+	
+	/**
+	 * Gets which faces of a section are connected through non-opaque cells,
+	 * as of the last time the section was loaded.
+	 * 
+	 * @param section the section to get the connections of
+	 * @return bitmask of the connected pairs of faces (see
+	 *         SectionVisibility.ALL_CONNECTED)
+	 */
+	public long getConnections(int section) {
+		return sectionConnections[section];
+	}
+	
+	/**
+	 * Checks whether any of this Region's mesh may be inside the given
+	 * frustum, by testing the box around its loaded sections. Regions with no
+	 * faces are never inside.
+	 * 
+	 * @param frustum the camera frustum to test against
+	 * @return whether this Region may be visible
+	 */
+	public boolean isInFrustum(Frustum frustum) {
+		if (boundsTop <= boundsBottom) return false;
+		return isBoxInFrustum(frustum, regionX, regionZ, boundsBottom, boundsTop);
+	}
+	
+	/**
+	 * Checks whether a box covering a whole Region horizontally, between two
+	 * heights, is at least partly inside the given frustum. This is plain
+	 * math and needs no OpenGL context.
+	 * 
+	 * @param frustum the frustum to test against
+	 * @param regionX the Region's x coordinate (in region coordinates)
+	 * @param regionZ the Region's z coordinate (in region coordinates)
+	 * @param bottom the bottom height of the box
+	 * @param top the top height of the box
+	 * @return whether the box is at least partly inside the frustum
+	 */
+	public static boolean isBoxInFrustum(Frustum frustum, int regionX, int regionZ,
+			int bottom, int top) {
+		float halfWidth = WIDTH/2f, halfHeight = (top - bottom)/2f;
+		return frustum.boundsInFrustum(
+				regionX*WIDTH + halfWidth, bottom + halfHeight, regionZ*WIDTH + halfWidth,
+				halfWidth, halfHeight, halfWidth);
+	}
+	
+	/**
+	 * Checks whether the deco layer is neither loaded nor baked, so the
+	 * Region has to be meshed with deco before the layer can be drawn.
+	 * 
+	 * @return whether the deco layer needs to be baked before it is drawn
+	 */
+	public boolean needsDecoLayer() {
+		return !decoLoaded && decoVertices == null;
+	}
+	
+	/**
+	 * Checks whether the deco layer has been baked and is waiting for
+	 * loadDecoLayer() to upload it.
+	 * 
+	 * @return whether the deco layer can be loaded
+	 */
+	public boolean hasDecoVertices() {
+		return decoVertices != null;
+	}
+	
+	/**
+	 * Uploads the deco layer's Mesh from the vertices baked by createMesh().
+	 * Like loadMesh(), this must be called in the main thread, and the
+	 * caller is expected to budget it along with the sections' uploads. Does
+	 * nothing if there are no baked vertices.
+	 */
+	public void loadDecoLayer() {
+		if (decoVertices == null) return;
+		
+		float[] vertices = decoVertices;
+		decoVertices = null;
+		decoLoaded = true;
+		if (vertices.length == 0) return;
+		
+		ModelBuilder builder = new ModelBuilder();
+		builder.begin();
+		QuadIndices.addParts(builder, vertices, VoxelModel.attributes, mat);
+		decoModel = builder.end();
+		decoInstance = new ModelInstance(decoModel);
+		decoInstance.transform.translate(regionX*WIDTH, 0, regionZ*WIDTH);
+	}
+	
+	/**
+	 * Removes the deco layer's Mesh, along with any baked vertices waiting
+	 * to be uploaded. Should be called on Regions too far away for deco to
+	 * be drawn.
+	 */
+	public void unloadDecoLayer() {
+		decoVertices = null;
+		decoLoaded = false;
+		if (decoModel == null) return;
+		
+		decoModel.dispose();
+		decoModel = null;
+		decoInstance = null;
+	}
+	
+	/**
+	 * Finds the placement of every deco block in the Region: its cell, its
+	 * model, its random number of quarter turns about y and the AO of its
+	 * cell. Deco blocks are never opaque and always stand on an opaque
+	 * block, so only heights from openBottom to solidTop are checked.
+	 * 
+	 * Deco AO is only found for the few cells holding deco blocks, from the
+	 * same OcclusionTable used for the sections, and is kept in the
+	 * placements rather than for every cell in the Region.
+	 * 
+	 * @param blocks the snapshot of this Region's Neighborhood
+	 * @param occlusion the OcclusionTable built from the snapshot
+	 * @return the deco placements, packed by packDecoPlacement()
+	 * @throws InterruptedException if meshing was cancelled
+	 */
+	private long[] findDecoPlacements(NeighborhoodSnapshot blocks, OcclusionTable occlusion)
+			throws InterruptedException {
+		long[] placements = new long[16];
+		int count = 0;
+		int top = Math.min(solidTop + 1, HEIGHT);
+		int[] corners = greedyScratch.get().corners;
+		byte[][][] data = getData();
+		
+		for (int i = 0; i < WIDTH; ++i) {
+			RegionGenerator.checkInterrupted();
+			
+			for (int j = openBottom; j < top; ++j) {
+				for (int k = 0; k < WIDTH; ++k) {
+					if (data[i][j][k] <= 1) continue;
+					
+					if (count == placements.length) {
+						placements = Arrays.copyOf(placements, count*2);
+					}
+					placements[count++] = packDecoPlacement(i, j, k, data[i][j][k]-2,
+							Noise.get(i, j+1, k, seed, 4),
+							getDecoAO(blocks, occlusion, i, j, k, corners));
+				}
+			}
+		}
+		
+		return Arrays.copyOf(placements, count);
+	}
+	
+	/**
+	 * Gets the AO for a deco model in a cell, which is based on the AO of the
+	 * face above the cell (its ceiling) if there is one, or else the face
+	 * below it (its floor). Cells with neither are not darkened.
+	 * 
+	 * @param blocks the snapshot of this Region's Neighborhood
+	 * @param occlusion the OcclusionTable built from the snapshot
+	 * @param x the cell's x coordinate
+	 * @param y the cell's y coordinate
+	 * @param z the cell's z coordinate
+	 * @param corners array of 12 ints to use for the face's corners
+	 * @return the AO for the deco model
+	 */
+	private static float getDecoAO(NeighborhoodSnapshot blocks, OcclusionTable occlusion,
+			int x, int y, int z, int[] corners) {
+		// the snapshot's layers above and below the world are air and
+		// opaque, but the layer below has no faces
+		Axis axis;
+		if (isOpaque(blocks.get(x, y+1, z))) {
+			axis = Axis.NEG_Y;
+			getQuadCorners(axis, y+1, x, z, x+1, z+1, corners);
+		} else if (y > 0 && isOpaque(blocks.get(x, y-1, z))) {
+			axis = Axis.POS_Y;
+			getQuadCorners(axis, y, x, z, x+1, z+1, corners);
+		} else {
+			return 1;
+		}
+		
+		return (getAmbientOcclusion(corners[0], corners[1], corners[2], axis, occlusion) +
+				getAmbientOcclusion(corners[3], corners[4], corners[5], axis, occlusion) +
+				getAmbientOcclusion(corners[6], corners[7], corners[8], axis, occlusion) +
+				getAmbientOcclusion(corners[9], corners[10], corners[11], axis, occlusion))/3f;
+	}
+	
+	/**
+	 * Packs the placement of a deco model into a long. The high int holds
+	 * the cell's index, then 3 bits of model index and 2 bits of quarter
+	 * turns; the low int holds the bits of the AO.
+	 * 
+	 * @param x the x index of the cell
+	 * @param y the y index of the cell
+	 * @param z the z index of the cell
+	 * @param model the index of the deco model
+	 * @param turns the number of quarter turns about y to rotate the model
+	 * @param ambientOcclusion the AO of the cell
+	 * @return the packed placement
+	 */
+	private static long packDecoPlacement(int x, int y, int z, int model, int turns,
+			float ambientOcclusion) {
+		int cell = (((x*HEIGHT + y)*WIDTH + z) << 5) | (model << 2) | (turns & 3);
+		return ((long)cell << 32) | (Float.floatToIntBits(ambientOcclusion) & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Builds the vertices of the deco layer from the deco placements. Each
+	 * deco model is turned about y by its number of quarter turns and
+	 * darkened by its AO, in VoxelModel's vertex format.
+	 * 
+	 * @param placements the deco placements, from findDecoPlacements()
+	 * @return the vertices of the deco layer
+	 */
+	private static float[] createDecoVertices(long[] placements) {
+		VertexBuilder verticesList = VertexBuilder.get();
+		
+		for (long placement : placements) {
+			// see packDecoPlacement()
+			int packed = (int)(placement >>> 32);
+			int cell = packed >>> 5;
+			appendDecoModel(verticesList, deco[(packed >> 2) & 7],
+					cell/(HEIGHT*WIDTH), cell/WIDTH % HEIGHT, cell % WIDTH,
+					packed & 3, Float.intBitsToFloat((int)placement));
+		}
+		
+		return verticesList.toArray();
+	}
+	
+	// cosine and sine of each number of quarter turns
+	private static final float[] QUARTER_COS = { 1, 0, -1, 0 }, QUARTER_SIN = { 0, 1, 0, -1 };
+	
+	/**
+	 * Adds the vertices of a deco model standing in the given cell to the
+	 * VertexBuilder, transformed as a ModelInstance of it would be.
+	 * 
+	 * @param verticesList the vertices under construction
+	 * @param model the deco model to add
+	 * @param x the x index of the cell
+	 * @param y the y index of the cell
+	 * @param z the z index of the cell
+	 * @param turns the number of quarter turns about y to rotate the model
+	 * @param ambientOcclusion the AO of the cell, multiplied to the model's colors
+	 */
+	private static void appendDecoModel(VertexBuilder verticesList, VoxelModel model,
+			int x, int y, int z, int turns, float ambientOcclusion) {
+		float cos = QUARTER_COS[turns & 3], sin = QUARTER_SIN[turns & 3];
+		float[] vertices = model.getVertices();
+		
+		// each vertex is a position, a color and a normal
+		for (int v = 0; v < vertices.length; v += 9) {
+			float px = vertices[v], pz = vertices[v+2],
+					nx = vertices[v+6], nz = vertices[v+8];
+			
+			verticesList.addVertex(
+					x + 0.5f + px*cos + pz*sin, y + vertices[v+1], z + 0.5f - px*sin + pz*cos,
+					vertices[v+3]*ambientOcclusion,
+					vertices[v+4]*ambientOcclusion,
+					vertices[v+5]*ambientOcclusion,
+					nx*cos + nz*sin, vertices[v+7], -nx*sin + nz*cos);
+		}
 	}
 
-	/* 
-	 * Constants: number of verts and indices in a quad, number of floats
-	 * in a vertex
+	/*
+	 * Region meshes can use a packed vertex format: the position and normal
+	 * are packed into one float by packPosition(), and the color (including
+	 * AO) is packed into four bytes. This is 8 bytes per vertex instead of
+	 * the 36 bytes used by VoxelModel's format, which cuts memory and upload
+	 * bandwidth for Region meshes by 4.5x. Rendering packed meshes requires a
+	 * ModelBatch using TerrainShaderProvider.
+	 * 
+	 * Off until TerrainShaderProvider's modified shader has been checked on
+	 * real GL drivers. Until then, meshes use VoxelModel's format, and World
+	 * renders with LibGDX's default shader provider, so no shader source is
+	 * modified at runtime.
 	 */
-    private static final int VERTS = 4, INDS = 6, FLOATS = 9;
+	public static final boolean PACKED_VERTICES = false;
+	
+	public static final VertexAttributes packedAttributes = new VertexAttributes(
+			new VertexAttribute(VertexAttributes.Usage.Generic, 1, "a_packed"),
+			new VertexAttribute(VertexAttributes.Usage.ColorPacked, 4, "a_color")
+			);
 	
 	/**
-	 * Populates the vertex and index arrays for this Region based on the
-	 * existing block data. Requires knowledge of adjacent Regions (this
-	 * Region's Neighborhood) to create polygons and calculate ambient
+	 * Populates the vertex arrays for the given sections of this Region based
+	 * on the existing block data. Requires knowledge of adjacent Regions
+	 * (this Region's Neighborhood) to create polygons and calculate ambient
 	 * occlusion. This method assumes the given Neighborhood is complete (that
 	 * n.isComplete() returns true).
 	 * 
+	 * The Neighborhood's block data is copied into a NeighborhoodSnapshot
+	 * first, and meshing only reads the snapshot after that. The connections
+	 * between each section's faces are found from the same snapshot. Meshes
+	 * at lower levels of detail only copy and downsample the opacity bitsets,
+	 * and always use greedy meshing.
+	 * 
+	 * If deco is set, the deco layer's vertices are baked here too, so the
+	 * main thread only has to upload them. Deco is only drawn near the
+	 * player, where Regions are at full detail, so it is never baked at
+	 * lower levels of detail. Sections can be 0 to only bake the deco layer.
+	 * 
+	 * Meshing can be cancelled by interrupting the thread running it. In that
+	 * case the sections should be meshed again later.
+	 * 
 	 * @param n this Region's Neighborhood (assumed to be complete)
+	 * @param sections bitmask of the sections to mesh, from takeDirtySections()
+	 * @param lod the level of detail to mesh at, from getLod()
+	 * @param deco whether to bake the deco layer, which only happens at LOD 0
+	 * @throws InterruptedException if meshing was cancelled
 	 */
-	public void createMesh(Neighborhood n) {
-        ArrayList<Float> verticesList = new ArrayList<Float>();
+	public void createMesh(Neighborhood n, int sections, int lod, boolean deco)
+			throws InterruptedException {
+        // padded copy of the block data around this Region
+        NeighborhoodSnapshot blocks = NeighborhoodSnapshot.get();
+        
+        // opaque cell counts for ambient occlusion, or null for no AO
+        OcclusionTable occlusion = null;
         
+        if (lod == 0) {
+        	blocks.copy(n);
+        	occlusion = OcclusionTable.get();
+        	occlusion.build(blocks);
+        } else {
+        	// the skirt reaches a cell below the lowest surface around this
+        	// Region, since downsampling can lower that surface by up to a cell
+        	blocks.copyColumns(n);
+        	blocks.downsample(1 << lod, Math.max(0, n.getOpenBottom() - (1 << lod)));
+        }
+        
+        for (int section = 0; section < SECTIONS; ++section) {
+        	if ((sections & (1 << section)) == 0) continue;
+        	
+        	// reused by every mesh built in this thread
+        	VertexBuilder verticesList = VertexBuilder.get();
+        	
+        	if (greedyMeshing || lod > 0) {
+        		appendGreedyQuads(blocks, occlusion, verticesList, section*SECTION_HEIGHT);
+        	} else {
+        		appendFaceQuads(blocks, occlusion, verticesList, section*SECTION_HEIGHT);
+        	}
+        	
+        	sectionVertices[section] = verticesList.toArray();
+        	newSectionConnections[section] =
+        			SectionVisibility.findConnections(blocks, section*SECTION_HEIGHT);
+        }
+        
+        newDecoVertices = deco && lod == 0 ?
+        		createDecoVertices(findDecoPlacements(blocks, occlusion)) : null;
+        
+        sectionsToLoad = sections;
+	}
+	
+	/**
+	 * Gets the number of quads in a section's mesh from the last call to
+	 * createMesh(), before it is loaded.
+	 * 
+	 * @param section the section to count the quads of
+	 * @return the number of quads, or 0 if the section has no new mesh
+	 */
+	public int getNewQuadCount(int section) {
+		float[] vertices = sectionVertices[section];
+		if (vertices == null) return 0;
+		
+		VertexAttributes attributes = PACKED_VERTICES ? packedAttributes : VoxelModel.attributes;
+		return vertices.length/(attributes.vertexSize/4)/4;
+	}
+	
+	/**
+	 * Gets the sections whose blocks have changed since they were last
+	 * meshed, and clears them, so they can be given to createMesh().
+	 * 
+	 * @return bitmask of the changed sections
+	 */
+	public int takeDirtySections() {
+		int sections = dirtySections;
+		dirtySections = 0;
+		return sections;
+	}
+	
+	/**
+	 * Gets the level of detail this Region should be meshed at.
+	 * 
+	 * @return the level of detail, from 0 (full detail) to LOD_LEVELS-1
+	 */
+	public int getLod() {
+		return lod;
+	}
+	
+	/**
+	 * Sets the level of detail this Region should be meshed at. If it
+	 * changes, every section is marked as needing to be meshed again.
+	 * 
+	 * @param lod the level of detail, from 0 (full detail) to LOD_LEVELS-1
+	 * @return whether the level of detail changed
+	 */
+	public boolean setLod(int lod) {
+		if (lod == this.lod) return false;
+		
+		this.lod = lod;
+		dirtySections = ALL_SECTIONS;
+		return true;
+	}
+	
+	/**
+	 * Checks whether any sections of this Region need to be meshed.
+	 * 
+	 * @return whether any sections have changed since they were last meshed
+	 */
+	public boolean isDirty() {
+		return dirtySections != 0;
+	}
+	
+	/**
+	 * Marks every section containing any of the given heights as needing to
+	 * be meshed again. Heights outside the Region are ignored.
+	 * 
+	 * @param minY the lowest changed height
+	 * @param maxY the highest changed height
+	 */
+	public void markDirty(int minY, int maxY) {
+		minY = Math.max(minY, 0);
+		maxY = Math.min(maxY, HEIGHT-1);
+		
+		for (int section = minY/SECTION_HEIGHT; section <= maxY/SECTION_HEIGHT; ++section) {
+			dirtySections |= 1 << section;
+		}
+	}
+	
+	/**
+	 * Adds one quad to the vertex list for every visible block face. Each
+	 * block's color is varied slightly at random.
+	 * 
+	 * @param blocks the snapshot of this Region's Neighborhood
+	 * @param occlusion the OcclusionTable built from the snapshot
+	 * @param verticesList the vertices under construction
+	 * @param bottom the lowest height of the section to mesh
+	 * @throws InterruptedException if meshing was cancelled
+	 */
+	private void appendFaceQuads(NeighborhoodSnapshot blocks, OcclusionTable occlusion,
+			VertexBuilder verticesList, int bottom)
+			throws InterruptedException {
         float r, g, b, c;
         
         for (int i = 0; i < WIDTH; ++i) {
-            for (int j = 0; j < HEIGHT; ++j) {
+        	RegionGenerator.checkInterrupted();
+        	
+            for (int j = bottom; j < bottom + SECTION_HEIGHT; ++j) {
                 for (int k = 0; k < WIDTH; ++k) {
                 	
+                	int cell = NeighborhoodSnapshot.index(i, j, k);
+                	
                 	// only create quad facing outwards if there's a block at this cell
-                	if (isVisible(data[i][j][k])) {
+                	if (isVisible(blocks.get(cell))) {
 
                 		// set color for any of this block's quads
                     	r = 0.25f;
@@ -239,8 +791,8 @@ public class Region implements Comparable<Region> {
                     	g += c;
 
                 		// only add quads if the block they're facing towards is empty
-                		if (!isOpaque(n.get(i-1, j, k))) {
-                			appendQuad(n, verticesList,
+                		if (!isOpaque(blocks.get(cell - NeighborhoodSnapshot.STRIDE_X))) {
+                			appendQuad(occlusion, verticesList,
                 					i,   j,   k,
                 					i,   j,   k+1,
                 					i,   j+1, k+1,
@@ -248,8 +800,8 @@ public class Region implements Comparable<Region> {
                 					r, g, b,
                 					VoxelModel.Axis.NEG_X);
                 		}
-                		if (!isOpaque(n.get(i+1, j, k))) {
-                			appendQuad(n, verticesList,
+                		if (!isOpaque(blocks.get(cell + NeighborhoodSnapshot.STRIDE_X))) {
+                			appendQuad(occlusion, verticesList,
                 					i+1, j,   k,
                 					i+1, j+1, k,
                 					i+1, j+1, k+1,
@@ -257,8 +809,8 @@ public class Region implements Comparable<Region> {
                 					r, g, b,
                 					VoxelModel.Axis.POS_X);
                 		}
-                		if (j > 0 && !isOpaque(data[i][j-1][k])) {
-                			appendQuad(n, verticesList,
+                		if (!isOpaque(blocks.get(cell - NeighborhoodSnapshot.STRIDE_Y))) {
+                			appendQuad(occlusion, verticesList,
                 					i,   j,   k,
                 					i+1, j,   k,
                 					i+1, j,   k+1,
@@ -266,8 +818,8 @@ public class Region implements Comparable<Region> {
                 					r, g, b,
                 					VoxelModel.Axis.NEG_Y);
                 		}
-                		if (j == HEIGHT-1 || !isOpaque(data[i][j+1][k])) {
-                			appendQuad(n, verticesList,
+                		if (!isOpaque(blocks.get(cell + NeighborhoodSnapshot.STRIDE_Y))) {
+                			appendQuad(occlusion, verticesList,
                 					i,   j+1, k,
                 					i,   j+1, k+1,
                 					i+1, j+1, k+1,
@@ -275,8 +827,8 @@ public class Region implements Comparable<Region> {
                 					r, g, b,
                 					VoxelModel.Axis.POS_Y);
                 		}
-                		if (!isOpaque(n.get(i, j, k-1))) {
-                			appendQuad(n, verticesList,
+                		if (!isOpaque(blocks.get(cell - NeighborhoodSnapshot.STRIDE_Z))) {
+                			appendQuad(occlusion, verticesList,
                 					i,   j,   k,
                 					i,   j+1, k,
                 					i+1, j+1, k,
@@ -284,8 +836,8 @@ public class Region implements Comparable<Region> {
                 					r, g, b,
                 					VoxelModel.Axis.NEG_Z);
                 		}
-                		if (!isOpaque(n.get(i, j, k+1))) {
-                			appendQuad(n, verticesList,
+                		if (!isOpaque(blocks.get(cell + NeighborhoodSnapshot.STRIDE_Z))) {
+                			appendQuad(occlusion, verticesList,
                 					i,   j,   k+1,
                 					i+1, j,   k+1,
                 					i+1, j+1, k+1,
@@ -297,27 +849,332 @@ public class Region implements Comparable<Region> {
                 }
             }
         }
-        
-        int numQuads = verticesList.size()/FLOATS/VERTS;
-        
-        vertices = new float[numQuads*FLOATS*VERTS];
-        indices = new short[numQuads*INDS];
-
-        // each polygon is 6 indices for each 4 vertices: two triangles
-        // for each quad
-        for (int i = 0; i < numQuads; ++i) {
-        	indices[i*INDS + 0] = (short)(i*VERTS + 0);
-        	indices[i*INDS + 1] = (short)(i*VERTS + 1);
-        	indices[i*INDS + 2] = (short)(i*VERTS + 2);
-        	
-        	indices[i*INDS + 3] = (short)(i*VERTS + 2);
-        	indices[i*INDS + 4] = (short)(i*VERTS + 3);
-        	indices[i*INDS + 5] = (short)(i*VERTS + 0);
-        }
-        
-        for (int i = 0; i < verticesList.size(); ++i) {
-        	vertices[i] = verticesList.get(i);
-        }
+	}
+	
+	/*
+	 * GREEDY MESHING:
+	 * 
+	 * Instead of one quad per block face, faces are collected one slice at a
+	 * time into a 2D mask for each of the six face directions, and adjacent
+	 * faces in the mask are merged into rectangles. See
+	 * 
+	 * http://0fps.net/2012/06/30/meshing-in-a-minecraft-game/
+	 * 
+	 * Faces are found a column at a time from the snapshot's opacity bitsets,
+	 * so slices without faces are skipped entirely, and within a slice only
+	 * cells with faces are visited. This relies on isVisible() and isOpaque()
+	 * agreeing, which they currently do.
+	 * 
+	 * Only faces whose four corners have the same ambient occlusion can be
+	 * merged, and only with faces of the same color and AO, since a merged
+	 * quad can only interpolate between its own four corners. Every corner of
+	 * a merged quad is a corner of one of the merged faces, so its AO is the
+	 * same as the faces' and the quad looks identical to the faces it
+	 * replaces. All other faces are added as single quads, keeping their
+	 * AO-based flip. Blocks are not given a random color variation in this
+	 * mode, since it would prevent any faces from matching.
+	 */
+	
+	// whether to mesh Regions at full detail using greedy meshing. Per-face
+	// meshing (appendFaceQuads()) is kept as the baseline QuadCountBenchmark
+	// compares greedy meshing against
+	private static volatile boolean greedyMeshing = true;
+	
+	/**
+	 * Sets whether Regions are meshed at full detail using greedy meshing,
+	 * or with one quad per block face. Meshes at lower levels of detail are
+	 * always greedy. Greedy meshing is on by default.
+	 * 
+	 * @param greedy whether to use greedy meshing
+	 */
+	public static void setGreedyMeshing(boolean greedy) {
+		greedyMeshing = greedy;
+	}
+	
+	// face directions in the order they are meshed
+	private static final Axis[] GREEDY_AXES = {
+		Axis.NEG_X, Axis.POS_X, Axis.POS_Y, Axis.NEG_Y, Axis.NEG_Z, Axis.POS_Z
+	};
+	
+	// states of a cell in the greedy mask
+	private static final byte NO_FACE = 0, UNIFORM_FACE = 1, SHADED_FACE = 2;
+	
+	/*
+	 * Scratch arrays for greedy meshing, kept per thread so that meshing
+	 * doesn't allocate them again for every Region. Masks are one slice of a
+	 * section, with four AO values per cell.
+	 */
+	private static final int MASK_SIZE = WIDTH*Math.max(WIDTH, SECTION_HEIGHT);
+	
+	private static class GreedyScratch {
+		final byte[] mask = new byte[MASK_SIZE];
+		final float[] maskAO = new float[MASK_SIZE*4];
+		final int[] corners = new int[12];
+		final int[] rows = new int[MASK_SIZE];
+	}
+	
+	private static final ThreadLocal<GreedyScratch> greedyScratch = new ThreadLocal<GreedyScratch>() {
+		@Override protected GreedyScratch initialValue() {
+			return new GreedyScratch();
+		}
+	};
+	
+	/**
+	 * Adds quads to the vertex list for every visible block face, merging
+	 * adjacent faces with matching color and ambient occlusion.
+	 * 
+	 * @param blocks the snapshot of this Region's Neighborhood
+	 * @param occlusion the OcclusionTable built from the snapshot, or null to
+	 *        mesh without ambient occlusion
+	 * @param verticesList the vertices under construction
+	 * @param bottom the lowest height of the section to mesh
+	 * @throws InterruptedException if meshing was cancelled
+	 */
+	private void appendGreedyQuads(NeighborhoodSnapshot blocks, OcclusionTable occlusion,
+			VertexBuilder verticesList, int bottom)
+			throws InterruptedException {
+		GreedyScratch scratch = greedyScratch.get();
+		byte[] mask = scratch.mask;
+		float[] maskAO = scratch.maskAO;
+		int[] corners = scratch.corners;
+		int[] rows = scratch.rows;
+		
+		float r = 0.25f, g = 0.85f, b = 0.0f;
+		
+		for (Axis axis : GREEDY_AXES) {
+			// find every face in the section along this axis
+			if (!findFaces(blocks, axis, bottom, rows)) continue;
+			
+			// slices are along the face normal, u and v span each slice. Only
+			// the section's heights are meshed, so y starts at bottom
+			// whether it is along slices or v.
+			int firstSlice, slices, sizeU, firstV, sizeV;
+			switch (axis) {
+				case NEG_Y: case POS_Y:
+					firstSlice = bottom; slices = SECTION_HEIGHT; sizeU = WIDTH;
+					firstV = 0; sizeV = WIDTH;
+					break;
+				default:
+					firstSlice = 0; slices = WIDTH; sizeU = WIDTH;
+					firstV = bottom; sizeV = SECTION_HEIGHT;
+					break;
+			}
+			boolean positive = (axis == Axis.POS_X || axis == Axis.POS_Y || axis == Axis.POS_Z);
+			
+			for (int slice = firstSlice; slice < firstSlice + slices; ++slice) {
+				RegionGenerator.checkInterrupted();
+				
+				// the face plane is on the near or far side of the cell
+				int plane = positive ? slice+1 : slice;
+				
+				// fill the mask for this slice, visiting only cells with
+				// faces. The mask is left empty after every slice, so it
+				// doesn't need to be cleared first.
+				int rowStart = (slice - firstSlice)*sizeU;
+				int sliceFaces = 0;
+				for (int u = 0; u < sizeU; ++u) {
+					int faces = rows[rowStart + u];
+					sliceFaces |= faces;
+					
+					for (; faces != 0; faces &= faces - 1) {
+						int v = Integer.numberOfTrailingZeros(faces);
+						int index = u*sizeV + v;
+						
+						float ao1 = 1, ao2 = 1, ao3 = 1, ao4 = 1;
+						if (occlusion != null) {
+							getQuadCorners(axis, plane, u, firstV+v, u+1, firstV+v+1, corners);
+							ao1 = getAmbientOcclusion(corners[0], corners[1], corners[2], axis, occlusion);
+							ao2 = getAmbientOcclusion(corners[3], corners[4], corners[5], axis, occlusion);
+							ao3 = getAmbientOcclusion(corners[6], corners[7], corners[8], axis, occlusion);
+							ao4 = getAmbientOcclusion(corners[9], corners[10], corners[11], axis, occlusion);
+						}
+						
+						maskAO[index*4 + 0] = ao1;
+						maskAO[index*4 + 1] = ao2;
+						maskAO[index*4 + 2] = ao3;
+						maskAO[index*4 + 3] = ao4;
+						mask[index] = (ao1 == ao2 && ao1 == ao3 && ao1 == ao4) ?
+								UNIFORM_FACE : SHADED_FACE;
+					}
+				}
+				
+				if (sliceFaces == 0) continue;
+				
+				// merge faces in the mask into rectangles
+				for (int u = 0; u < sizeU; ++u) {
+					for (int v = 0; v < sizeV; ++v) {
+						int index = u*sizeV + v;
+						
+						if (mask[index] == SHADED_FACE) {
+							getQuadCorners(axis, plane, u, firstV+v, u+1, firstV+v+1, corners);
+							appendQuad(verticesList, corners, r, g, b,
+									maskAO[index*4 + 0], maskAO[index*4 + 1],
+									maskAO[index*4 + 2], maskAO[index*4 + 3], axis);
+							mask[index] = NO_FACE;
+						}
+						
+						if (mask[index] != UNIFORM_FACE) continue;
+						
+						float ao = maskAO[index*4];
+						
+						// grow along v as far as faces match
+						int endV = v+1;
+						while (endV < sizeV && matches(mask, maskAO, u*sizeV + endV, ao)) {
+							endV++;
+						}
+						
+						// grow along u as long as the whole row matches
+						int endU = u+1;
+						growing:
+						while (endU < sizeU) {
+							for (int w = v; w < endV; ++w) {
+								if (!matches(mask, maskAO, endU*sizeV + w, ao)) break growing;
+							}
+							endU++;
+						}
+						
+						// clear the merged faces from the mask
+						for (int i = u; i < endU; ++i) {
+							for (int j = v; j < endV; ++j) {
+								mask[i*sizeV + j] = NO_FACE;
+							}
+						}
+						
+						getQuadCorners(axis, plane, u, firstV+v, endU, firstV+endV, corners);
+						appendQuad(verticesList, corners, r, g, b, ao, ao, ao, ao, axis);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether a cell in the greedy mask is a uniformly shaded face
+	 * with the given ambient occlusion.
+	 * 
+	 * @param mask the greedy mask
+	 * @param maskAO the AO values for the greedy mask
+	 * @param index the index of the cell in the mask
+	 * @param ao the AO value to match
+	 * @return whether the cell can be merged
+	 */
+	private static boolean matches(byte[] mask, float[] maskAO, int index, float ao) {
+		return mask[index] == UNIFORM_FACE && maskAO[index*4] == ao;
+	}
+	
+	/**
+	 * Finds the faces along an axis in one section of a snapshot, a column
+	 * at a time from its opacity bitsets, and stores them as rows of the
+	 * greedy mask: rows[(slice-firstSlice)*sizeU + u] has bit v set if the
+	 * cell at that slice, u and v has a face. This requires WIDTH and
+	 * SECTION_HEIGHT to be at most 32.
+	 * 
+	 * @param blocks the snapshot of this Region's Neighborhood
+	 * @param axis the direction of the faces
+	 * @param bottom the lowest height of the section
+	 * @param rows array of at least MASK_SIZE ints to receive the faces
+	 * @return whether there are any faces
+	 */
+	private static boolean findFaces(NeighborhoodSnapshot blocks, Axis axis, int bottom, int[] rows) {
+		int anyFaces = 0;
+		
+		// rows along y are built up one face at a time
+		if (axis == Axis.NEG_Y || axis == Axis.POS_Y) {
+			Arrays.fill(rows, 0, SECTION_HEIGHT*WIDTH, 0);
+		}
+		
+		for (int x = 0; x < WIDTH; ++x) {
+			for (int z = 0; z < WIDTH; ++z) {
+				int solid = blocks.getOpaqueBits(x, z, bottom);
+				if (solid == 0) continue;
+				
+				// a face is an opaque block next to a non-opaque one
+				int faces;
+				switch (axis) {
+					case NEG_X: faces = solid & ~blocks.getOpaqueBits(x-1, z, bottom); break;
+					case POS_X: faces = solid & ~blocks.getOpaqueBits(x+1, z, bottom); break;
+					case NEG_Y: faces = solid & ~blocks.getOpaqueBits(x, z, bottom-1); break;
+					case POS_Y: faces = solid & ~blocks.getOpaqueBits(x, z, bottom+1); break;
+					case NEG_Z: faces = solid & ~blocks.getOpaqueBits(x, z-1, bottom); break;
+					default:    faces = solid & ~blocks.getOpaqueBits(x, z+1, bottom); break;
+				}
+				anyFaces |= faces;
+				
+				// X and Z faces are already rows along y, Y faces become
+				// rows along z
+				switch (axis) {
+					case NEG_X: case POS_X:
+						rows[x*WIDTH + z] = faces;
+						break;
+					case NEG_Z: case POS_Z:
+						rows[z*WIDTH + x] = faces;
+						break;
+					default:
+						for (; faces != 0; faces &= faces - 1) {
+							rows[Integer.numberOfTrailingZeros(faces)*WIDTH + x] |= 1 << z;
+						}
+						break;
+				}
+			}
+		}
+		
+		// columns with no opaque blocks were skipped, so clear their rows
+		if (anyFaces != 0 && axis != Axis.NEG_Y && axis != Axis.POS_Y) {
+			for (int x = 0; x < WIDTH; ++x) {
+				for (int z = 0; z < WIDTH; ++z) {
+					if (blocks.getOpaqueBits(x, z, bottom) != 0) continue;
+					if (axis == Axis.NEG_X || axis == Axis.POS_X) {
+						rows[x*WIDTH + z] = 0;
+					} else {
+						rows[z*WIDTH + x] = 0;
+					}
+				}
+			}
+		}
+		
+		return anyFaces != 0;
+	}
+	
+	/**
+	 * Gets the corners of a rectangle of faces in a greedy mask slice, in the
+	 * same counterclockwise order used for single block faces.
+	 * 
+	 * @param axis the direction of the faces
+	 * @param plane the position of the face plane along the axis
+	 * @param u0 the lower mask coordinate in u
+	 * @param v0 the lower mask coordinate in v
+	 * @param u1 the upper mask coordinate in u
+	 * @param v1 the upper mask coordinate in v
+	 * @param corners array of 12 ints to receive the four xyz corners
+	 */
+	private static void getQuadCorners(Axis axis, int plane,
+			int u0, int v0, int u1, int v1, int[] corners) {
+		switch (axis) {
+			case NEG_X: setCorners(corners,
+					plane, v0, u0,  plane, v0, u1,  plane, v1, u1,  plane, v1, u0); break;
+			case POS_X: setCorners(corners,
+					plane, v0, u0,  plane, v1, u0,  plane, v1, u1,  plane, v0, u1); break;
+			case NEG_Y: setCorners(corners,
+					u0, plane, v0,  u1, plane, v0,  u1, plane, v1,  u0, plane, v1); break;
+			case POS_Y: setCorners(corners,
+					u0, plane, v0,  u0, plane, v1,  u1, plane, v1,  u1, plane, v0); break;
+			case NEG_Z: setCorners(corners,
+					u0, v0, plane,  u0, v1, plane,  u1, v1, plane,  u1, v0, plane); break;
+			case POS_Z: setCorners(corners,
+					u0, v0, plane,  u1, v0, plane,  u1, v1, plane,  u0, v1, plane); break;
+		}
+	}
+	
+	/**
+	 * Fills an array with the coordinates of four corners.
+	 */
+	private static void setCorners(int[] corners,
+			int x1, int y1, int z1, int x2, int y2, int z2,
+			int x3, int y3, int z3, int x4, int y4, int z4) {
+		corners[0] = x1; corners[1] = y1; corners[2] = z1;
+		corners[3] = x2; corners[4] = y2; corners[5] = z2;
+		corners[6] = x3; corners[7] = y3; corners[8] = z3;
+		corners[9] = x4; corners[10] = y4; corners[11] = z4;
 	}
 	
 	/*
@@ -342,9 +1199,13 @@ public class Region implements Comparable<Region> {
 	 * works recursively, further darkening the cells by using lower radii as
 	 * well. Therefore, a radius of 2 will lead to a total of
 	 * (4*4*4/2) + (2*2*2/2) = 40 cells being checked.
+	 * 
+	 * Cells are not checked one at a time: each half-cube is counted in
+	 * constant time using an OcclusionTable built once per Region.
 	 */
 	
 	// The radius to use for ambient occlusion
+	// must be no larger than OcclusionTable.BORDER
 	private static final int AO_Quality = 3;
 
 	/**
@@ -357,10 +1218,12 @@ public class Region implements Comparable<Region> {
 	 * @param y the vertex location in y
 	 * @param z the vertex location in z
 	 * @param axis the normal axis
+	 * @param occlusion the OcclusionTable to count opaque cells with
 	 * @return the lightness of the AO at the given point
 	 */
-	private static float getAmbientOcclusion(int x, int y, int z, VoxelModel.Axis axis, Neighborhood n) {
-		return getAmbientOcclusion(x, y, z, axis, n, AO_Quality);
+	private static float getAmbientOcclusion(int x, int y, int z, VoxelModel.Axis axis,
+			OcclusionTable occlusion) {
+		return getAmbientOcclusion(x, y, z, axis, occlusion, AO_Quality);
 	}
 
 	/**
@@ -370,18 +1233,16 @@ public class Region implements Comparable<Region> {
 	 * @param y the vertex location in y
 	 * @param z the vertex location in z
 	 * @param axis the normal axis
+	 * @param occlusion the OcclusionTable to count opaque cells with
 	 * @param radius the radius of blocks to check for opaqueness
 	 * @return the lightness of the AO at the given point
 	 */
 	private static float getAmbientOcclusion(int x, int y, int z, VoxelModel.Axis axis,
-			Neighborhood n, int radius) {
+			OcclusionTable occlusion, int radius) {
 		
 		// base case - no darkening
 		if (radius < 1) return 1;
 
-		// count of opaque cells
-		int cells = 0;
-
 		// start and end values based on radius
 		int startX = -radius,
 				endX = radius,
@@ -400,14 +1261,10 @@ public class Region implements Comparable<Region> {
 			case POS_Z: startZ = 0; break;
 		}
 
-		// count up opaque cells
-		for (int i = startX; i < endX; ++i) {
-			for (int j = startY; j < endY; ++j) {
-				for (int k = startZ; k < endZ; ++k) {
-					if (isOpaque(n.get(x+i, y+j, z+k))) cells++;
-				}
-			}
-		}
+		// count of opaque cells
+		int cells = occlusion.count(
+				x+startX, y+startY, z+startZ,
+				x+endX, y+endY, z+endZ);
 
 		// number of opaque cells out of the maximum
 		float proportion = (float)(cells/((Math.pow(radius*2, 3)/2)));
@@ -416,15 +1273,27 @@ public class Region implements Comparable<Region> {
 		float ao =  MathUtils.clamp(1 - proportion*1, 0, 1);
 		
 		// recurse to get better results in tight corners
-		return ao * (getAmbientOcclusion(x, y, z, axis, n, radius-1)+.1f)/1.1f;
+		return ao * (getAmbientOcclusion(x, y, z, axis, occlusion, radius-1)+.1f)/1.1f;
 	}
 
+	/**
+	 * Checks whether this Region's mesh has been loaded and can be rendered.
+	 * 
+	 * @return whether this Region has a mesh
+	 */
+	public boolean hasMesh() {
+		return meshLoaded;
+	}
+	
 	/**
 	 * Deallocate LibGDX objects not handled by GC. Needs to be called on a
 	 * Region before it is GC'd to prevent memory leak.
 	 */
 	public void dispose() {
-		if (model != null) model.dispose();
+		for (Model model : sectionModels) {
+			if (model != null) model.dispose();
+		}
+		if (decoModel != null) decoModel.dispose();
 	}
 	
 	/**
@@ -439,7 +1308,67 @@ public class Region implements Comparable<Region> {
 	 * @return the data at the given indices
 	 */
 	public byte get(int x, int y, int z) {
-		return data[x][y][z];
+		return getData()[x][y][z];
+	}
+	
+	/**
+	 * Sets the block data at the given coordinates. As with get(), parameters
+	 * are indices, not block coordinates in world space. This does not mark
+	 * anything as needing to be meshed again: see Map.setBlock().
+	 * 
+	 * @param x the x index of the block to set
+	 * @param y the y index of the block to set
+	 * @param z the z index of the block to set
+	 * @param datum the new block data
+	 */
+	public void set(int x, int y, int z, byte datum) {
+		// restore the data before taking the lock, see getData()
+		getData();
+		
+		synchronized (this) {
+			getData()[x][y][z] = datum;
+			modified = true;
+			
+			// heights only ever widen, which keeps them correct bounds
+			int word = (x*WIDTH + z)*COLUMN_WORDS + y/64;
+			if (isOpaque(datum)) {
+				solidTop = Math.max(solidTop, y+1);
+				opaqueColumns[word] |= 1L << y;
+			} else {
+				openBottom = Math.min(openBottom, y);
+				opaqueColumns[word] &= ~(1L << y);
+			}
+		}
+	}
+	
+	/**
+	 * Copies the opacity bitset of a column of blocks into an array, as
+	 * COLUMN_WORDS longs with bit y set if the block at height y is opaque.
+	 * As with get(), parameters are indices, not block coordinates in world
+	 * space.
+	 * 
+	 * @param x the x index of the column
+	 * @param z the z index of the column
+	 * @param dest the array to copy into
+	 * @param destIndex the index in dest of the first long
+	 */
+	public void copyColumn(int x, int z, long[] dest, int destIndex) {
+		System.arraycopy(opaqueColumns, (x*WIDTH + z)*COLUMN_WORDS, dest, destIndex, COLUMN_WORDS);
+	}
+	
+	/**
+	 * Copies part of a row of block data along z into an array. As with
+	 * get(), parameters are indices, not block coordinates in world space.
+	 * 
+	 * @param x the x index of the row
+	 * @param y the y index of the row
+	 * @param z the z index of the first block to copy
+	 * @param length the number of blocks to copy
+	 * @param dest the array to copy into
+	 * @param destIndex the index in dest of the first block
+	 */
+	public void copyRow(int x, int y, int z, int length, byte[] dest, int destIndex) {
+		System.arraycopy(getData()[x][y], z, dest, destIndex, length);
 	}
 	
 	/**
@@ -466,6 +1395,8 @@ public class Region implements Comparable<Region> {
 	 * Checks whether a given location collides with entities. As with get(),
 	 * parameters are indices, not block coordinates in world space. As with
 	 * get(), throws an ArrayIndexOutOfBoundsException if indices are not valid.
+	 * Only opaque blocks collide, so this reads the opacity bitsets, which
+	 * are kept even when the block data is released.
 	 * 
 	 * @param x the x index to check for collision
 	 * @param y the y index to check for collision
@@ -473,7 +1404,144 @@ public class Region implements Comparable<Region> {
 	 * @return whether the block at the given coordinates collides with entities
 	 */
 	public boolean collide(int x, int y, int z) {
-		return data[x][y][z] == 1;
+		if (y < 0 || y >= HEIGHT) throw new ArrayIndexOutOfBoundsException(y);
+		return (opaqueColumns[(x*WIDTH + z)*COLUMN_WORDS + y/64] & 1L << y) != 0;
+	}
+	
+	/**
+	 * Checks whether this Region's block data is currently held in memory,
+	 * either raw or compressed.
+	 * 
+	 * @return whether the block data is loaded
+	 */
+	public boolean hasData() {
+		return data != null || compressedData != null;
+	}
+	
+	/**
+	 * Checks whether this Region's block data is currently compressed.
+	 * 
+	 * @return whether the block data is compressed
+	 */
+	public boolean isCompressed() {
+		return compressedData != null;
+	}
+	
+	/**
+	 * Gets the number of bytes of block data this Region holds: the blocks
+	 * themselves if the data is raw, the compressed runs if it is
+	 * compressed, or 0 if it was released. Array headers aren't counted.
+	 * 
+	 * @return the size of the block data in bytes
+	 */
+	public int getDataSize() {
+		byte[] compressed = compressedData;
+		if (compressed != null) return compressed.length;
+		return data != null ? WIDTH*HEIGHT*WIDTH : 0;
+	}
+	
+	/**
+	 * Compresses this Region's block data (see CompressedBlocks), keeping
+	 * the opacity bitsets and heights as they are. The data is decompressed
+	 * the next time anything reads or sets a block. Unlike releasing it,
+	 * compressing keeps any blocks which were set.
+	 * 
+	 * @return whether the data was compressed
+	 */
+	public synchronized boolean compressData() {
+		if (data == null) return false;
+		compressedData = CompressedBlocks.compress(data);
+		data = null;
+		return true;
+	}
+	
+	/**
+	 * Releases this Region's block data, raw or compressed, keeping only the
+	 * opacity bitsets and heights, which are all collision and meshing at a
+	 * coarser level of detail need. The data is generated again from the
+	 * seed the next time anything reads it. Regions whose blocks were set
+	 * keep their data.
+	 * 
+	 * @return whether the data was released
+	 */
+	public synchronized boolean releaseData() {
+		if (modified || !hasData()) return false;
+		data = null;
+		compressedData = null;
+		return true;
+	}
+	
+	/**
+	 * Gets this Region's block data, decompressing it or generating it
+	 * again first if it was compressed or released.
+	 * 
+	 * Decompressing is quick and happens under the Region's lock, but
+	 * generating takes around 10 ms, so it happens outside of it and the
+	 * result is only published under the lock, as long as the data is still
+	 * released by then. Otherwise a meshing thread generating the data would
+	 * block the main thread setting a block or compressing the Region. If
+	 * several threads find the data released at once, each generates it and
+	 * the first to finish wins.
+	 * 
+	 * @return the block data
+	 */
+	private byte[][][] getData() {
+		byte[][][] blocks = data;
+		if (blocks != null) return blocks;
+		
+		while (true) {
+			synchronized (this) {
+				if (blocks != null && data == null && compressedData == null) data = blocks;
+				
+				if (data == null && compressedData != null) {
+					long start = System.nanoTime();
+					byte[][][] decompressed = new byte[WIDTH][HEIGHT][WIDTH];
+					CompressedBlocks.decompress(compressedData, decompressed);
+					data = decompressed;
+					compressedData = null;
+					decompressNanos.addAndGet(System.nanoTime() - start);
+					decompressCount.incrementAndGet();
+				}
+				
+				if (data != null) return data;
+			}
+			
+			blocks = generateData();
+		}
+	}
+	
+	/**
+	 * Generates this Region's block data again from the seed. Generation
+	 * isn't cancelled by interrupting the thread, since callers can't do
+	 * without the data, but the interrupted status is kept so the caller's
+	 * own task still notices it.
+	 * 
+	 * @return the generated block data
+	 */
+	private byte[][][] generateData() {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return new RegionGenerator().generate(regionX*WIDTH, regionZ*WIDTH, seed);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Gets the average time in nanoseconds taken to decompress a Region's
+	 * block data, across all Regions, or 0 if none has been decompressed.
+	 * 
+	 * @return the average decompression time
+	 */
+	public static long getAverageDecompressTime() {
+		long count = decompressCount.get();
+		return count == 0 ? 0 : decompressNanos.get()/count;
 	}
 	
 	/**
@@ -497,22 +1565,62 @@ public class Region implements Comparable<Region> {
 	}
 	
 	/**
-	 * Converts block coordinates into region coordinates. Returns a MapCoord
-	 * containing coordinated for the region encompassing the given block
-	 * coordinates.
+	 * Gets the height of the lowest non-opaque cell in this Region, or HEIGHT
+	 * if every cell is opaque.
 	 * 
-	 * @param x the block coordinate in x
-	 * @param z the block coordinate in z
-	 * @return the MapCoord for the Region containing the block coordinate (x, z)
+	 * @return the lowest non-opaque y index
 	 */
-	public static MapCoord getRegionAt(float x, float z) {
-		return new MapCoord(MathUtils.floor(x/WIDTH), MathUtils.floor(z/WIDTH), -1);
+	public int getOpenBottom() {
+		return openBottom;
+	}
+	
+	/**
+	 * Gets the height just above the highest opaque cell in this Region, or 0
+	 * if no cell is opaque.
+	 * 
+	 * @return one more than the highest opaque y index
+	 */
+	public int getSolidTop() {
+		return solidTop;
+	}
+	
+	/**
+	 * Finds openBottom and solidTop, and fills the opacity bitsets, from the
+	 * block data.
+	 */
+	private void scanBlocks() {
+		openBottom = HEIGHT;
+		solidTop = 0;
+		
+		for (int i = 0; i < WIDTH; ++i) {
+			for (int j = 0; j < HEIGHT; ++j) {
+				for (int k = 0; k < WIDTH; ++k) {
+					if (isOpaque(data[i][j][k])) {
+						solidTop = Math.max(solidTop, j+1);
+						opaqueColumns[(i*WIDTH + k)*COLUMN_WORDS + j/64] |= 1L << j;
+					} else {
+						openBottom = Math.min(openBottom, j);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Converts a block coordinate into a region coordinate, in either x or z.
+	 * 
+	 * @param blockCoordinate the block coordinate in x or z
+	 * @return the coordinate of the Region containing the block coordinate
+	 */
+	public static int getRegionAt(float blockCoordinate) {
+		return MathUtils.floor(blockCoordinate/WIDTH);
 	}
 
 	/**
 	 * Adds a quad to the VertexList.
 	 * 
-	 * @param vertexList the list under construction
+	 * @param occlusion the OcclusionTable to calculate AO with
+	 * @param vertexList the vertices under construction
 	 * @param x1 the x coordinate of the first vertex in counterclockwise order
 	 * @param y1 the y coordinate of the first vertex in counterclockwise order
 	 * @param z1 the z coordinate of the first vertex in counterclockwise order
@@ -530,8 +1638,8 @@ public class Region implements Comparable<Region> {
 	 * @param b the blue channel of the vertex color
 	 * @param axis the axis of the quad normal
 	 */
-	public void appendQuad(Neighborhood n,
-			ArrayList<Float> vertexList, 
+	public void appendQuad(OcclusionTable occlusion,
+			VertexBuilder vertexList, 
 			float x1, float y1, float z1,
 			float x2, float y2, float z2,
 			float x3, float y3, float z3,
@@ -540,19 +1648,72 @@ public class Region implements Comparable<Region> {
 			VoxelModel.Axis axis) {
 
 		// calculate ambient occlusion for each vertex
-		float ambientOcclusion1 = getAmbientOcclusion((int)x1, (int)y1, (int)z1, axis, n);
-		float ambientOcclusion2 = getAmbientOcclusion((int)x2, (int)y2, (int)z2, axis, n);
-		float ambientOcclusion3 = getAmbientOcclusion((int)x3, (int)y3, (int)z3, axis, n);
-		float ambientOcclusion4 = getAmbientOcclusion((int)x4, (int)y4, (int)z4, axis, n);
-		
-		// set block AO based on floor or cieling AO
-		if (axis == Axis.POS_Y && (int)y1 < HEIGHT) {
-			modelAO[(int)x1][(int)y1][(int)z1] = 
-					(ambientOcclusion1 + ambientOcclusion2 + ambientOcclusion3 + ambientOcclusion4)/3f;
-		} else if (axis == Axis.NEG_Y && (int)y1 > 0) {
-			modelAO[(int)x1][(int)y1-1][(int)z1] = 
-					(ambientOcclusion1 + ambientOcclusion2 + ambientOcclusion3 + ambientOcclusion4)/3f;
-		}
+		float ambientOcclusion1 = getAmbientOcclusion((int)x1, (int)y1, (int)z1, axis, occlusion);
+		float ambientOcclusion2 = getAmbientOcclusion((int)x2, (int)y2, (int)z2, axis, occlusion);
+		float ambientOcclusion3 = getAmbientOcclusion((int)x3, (int)y3, (int)z3, axis, occlusion);
+		float ambientOcclusion4 = getAmbientOcclusion((int)x4, (int)y4, (int)z4, axis, occlusion);
+		
+		appendQuad(vertexList,
+				x1, y1, z1, x2, y2, z2, x3, y3, z3, x4, y4, z4,
+				r, g, b,
+				ambientOcclusion1, ambientOcclusion2, ambientOcclusion3, ambientOcclusion4,
+				axis);
+	}
+	
+	/**
+	 * Adds a quad with corners taken from an array of 12 ints to the
+	 * VertexList, using precalculated ambient occlusion.
+	 */
+	private void appendQuad(VertexBuilder vertexList, int[] corners,
+			float r, float g, float b,
+			float ambientOcclusion1, float ambientOcclusion2,
+			float ambientOcclusion3, float ambientOcclusion4,
+			VoxelModel.Axis axis) {
+		appendQuad(vertexList,
+				corners[0], corners[1], corners[2],
+				corners[3], corners[4], corners[5],
+				corners[6], corners[7], corners[8],
+				corners[9], corners[10], corners[11],
+				r, g, b,
+				ambientOcclusion1, ambientOcclusion2, ambientOcclusion3, ambientOcclusion4,
+				axis);
+	}
+	
+	/**
+	 * Adds a quad to the VertexList using precalculated ambient occlusion for
+	 * each vertex. The quad is flipped if necessary based on its AO.
+	 * 
+	 * @param vertexList the vertices under construction
+	 * @param x1 the x coordinate of the first vertex in counterclockwise order
+	 * @param y1 the y coordinate of the first vertex in counterclockwise order
+	 * @param z1 the z coordinate of the first vertex in counterclockwise order
+	 * @param x2 the x coordinate of the second vertex in counterclockwise order
+	 * @param y2 the y coordinate of the second vertex in counterclockwise order
+	 * @param z2 the z coordinate of the second vertex in counterclockwise order
+	 * @param x3 the x coordinate of the third vertex in counterclockwise order
+	 * @param y3 the y coordinate of the third vertex in counterclockwise order
+	 * @param z3 the z coordinate of the third vertex in counterclockwise order
+	 * @param x4 the x coordinate of the fourth vertex in counterclockwise order
+	 * @param y4 the y coordinate of the fourth vertex in counterclockwise order
+	 * @param z4 the z coordinate of the fourth vertex in counterclockwise order
+	 * @param r the red channel of the vertex color
+	 * @param g the green channel of the vertex color
+	 * @param b the blue channel of the vertex color
+	 * @param ambientOcclusion1 the AO of the first vertex
+	 * @param ambientOcclusion2 the AO of the second vertex
+	 * @param ambientOcclusion3 the AO of the third vertex
+	 * @param ambientOcclusion4 the AO of the fourth vertex
+	 * @param axis the axis of the quad normal
+	 */
+	private void appendQuad(VertexBuilder vertexList, 
+			float x1, float y1, float z1,
+			float x2, float y2, float z2,
+			float x3, float y3, float z3,
+			float x4, float y4, float z4,
+			float r, float g, float b,
+			float ambientOcclusion1, float ambientOcclusion2,
+			float ambientOcclusion3, float ambientOcclusion4,
+			VoxelModel.Axis axis) {
 
 		// flip quad if necessary because of ambient occlusion
 		// see "details regarding meshing":
@@ -573,61 +1734,85 @@ public class Region implements Comparable<Region> {
 
 		// add the first vertex first if quad is not flipped
 		if (!flipped) {
-			vertexList.add(x1);
-			vertexList.add(y1);
-			vertexList.add(z1);
-			vertexList.add(r*ambientOcclusion1);
-			vertexList.add(g*ambientOcclusion1);
-			vertexList.add(b*ambientOcclusion1);
-			vertexList.add(nx);
-			vertexList.add(ny);
-			vertexList.add(nz);
+			addVertex(vertexList,
+					x1, y1, z1,
+					r, g, b, ambientOcclusion1,
+					nx, ny, nz, axis);
 		}
 		
-		vertexList.add(x2);
-		vertexList.add(y2);
-		vertexList.add(z2);
-		vertexList.add(r*ambientOcclusion2);
-		vertexList.add(g*ambientOcclusion2);
-		vertexList.add(b*ambientOcclusion2);
-		vertexList.add(nx);
-		vertexList.add(ny);
-		vertexList.add(nz);
-		
-		vertexList.add(x3);
-		vertexList.add(y3);
-		vertexList.add(z3);
-		vertexList.add(r*ambientOcclusion3);
-		vertexList.add(g*ambientOcclusion3);
-		vertexList.add(b*ambientOcclusion3);
-		vertexList.add(nx);
-		vertexList.add(ny);
-		vertexList.add(nz);
-		
-		vertexList.add(x4);
-		vertexList.add(y4);
-		vertexList.add(z4);
-		vertexList.add(r*ambientOcclusion4);
-		vertexList.add(g*ambientOcclusion4);
-		vertexList.add(b*ambientOcclusion4);
-		vertexList.add(nx);
-		vertexList.add(ny);
-		vertexList.add(nz);
+		addVertex(vertexList,
+				x2, y2, z2,
+				r, g, b, ambientOcclusion2,
+				nx, ny, nz, axis);
+		
+		addVertex(vertexList,
+				x3, y3, z3,
+				r, g, b, ambientOcclusion3,
+				nx, ny, nz, axis);
+		
+		addVertex(vertexList,
+				x4, y4, z4,
+				r, g, b, ambientOcclusion4,
+				nx, ny, nz, axis);
 
 		// add first vertex last if quad is flipped
 		if (flipped) {
-			vertexList.add(x1);
-			vertexList.add(y1);
-			vertexList.add(z1);
-			vertexList.add(r*ambientOcclusion1);
-			vertexList.add(g*ambientOcclusion1);
-			vertexList.add(b*ambientOcclusion1);
-			vertexList.add(nx);
-			vertexList.add(ny);
-			vertexList.add(nz);
+			addVertex(vertexList,
+					x1, y1, z1,
+					r, g, b, ambientOcclusion1,
+					nx, ny, nz, axis);
+		}
+	}
+	
+	/**
+	 * Adds a single vertex to the VertexBuilder, in the packed format if
+	 * PACKED_VERTICES is set, otherwise as nine floats.
+	 * 
+	 * @param vertexList the vertices under construction
+	 * @param x the x coordinate of the vertex
+	 * @param y the y coordinate of the vertex
+	 * @param z the z coordinate of the vertex
+	 * @param r the red channel of the vertex color
+	 * @param g the green channel of the vertex color
+	 * @param b the blue channel of the vertex color
+	 * @param ambientOcclusion the AO of the vertex, multiplied to its color
+	 * @param nx the x component of the normal
+	 * @param ny the y component of the normal
+	 * @param nz the z component of the normal
+	 * @param axis the axis of the normal
+	 */
+	private static void addVertex(VertexBuilder vertexList,
+			float x, float y, float z,
+			float r, float g, float b, float ambientOcclusion,
+			float nx, float ny, float nz, VoxelModel.Axis axis) {
+		if (PACKED_VERTICES) {
+			vertexList.addPackedVertex(
+					packPosition((int)x, (int)y, (int)z, axis),
+					Color.toFloatBits(r*ambientOcclusion, g*ambientOcclusion, b*ambientOcclusion, 1));
+		} else {
+			vertexList.addVertex(
+					x, y, z,
+					r*ambientOcclusion, g*ambientOcclusion, b*ambientOcclusion,
+					nx, ny, nz);
 		}
 	}
 	
+	/**
+	 * Packs a vertex position within a Region and a normal axis into a single
+	 * float. The result is an integer small enough to be stored exactly in a
+	 * float (less than 2^24), which TerrainShaderProvider's vertex shader
+	 * unpacks again.
+	 * 
+	 * @param x the x coordinate of the vertex, from 0 to WIDTH
+	 * @param y the y coordinate of the vertex, from 0 to HEIGHT
+	 * @param z the z coordinate of the vertex, from 0 to WIDTH
+	 * @param axis the axis of the normal
+	 * @return the packed position and normal
+	 */
+	public static float packPosition(int x, int y, int z, VoxelModel.Axis axis) {
+		return x + (WIDTH+1)*(z + (WIDTH+1)*(y + (HEIGHT+1)*axis.ordinal()));
+	}
+	
 	/**
 	 * Changes this Region's generationPriority for the Map. The PriorityQueue
 	 * in the Map should be reordered after this function is called.
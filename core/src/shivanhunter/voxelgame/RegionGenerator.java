@@ -5,19 +5,26 @@ import com.badlogic.gdx.math.MathUtils;
 public class RegionGenerator {
 	/**
 	 * Generates a byte array representing raw block data for a single Region.
+	 * Generation can be cancelled by interrupting the thread running it, in
+	 * which case an InterruptedException is thrown at the next checkpoint.
 	 * TODO: optimize
 	 * 
 	 * @param x the region's X coordinate
 	 * @param z the region's Z coordinate
 	 * @param seed the seed to use for generation
 	 * @return the byte array representing raw block data
+	 * @throws InterruptedException if the thread was interrupted
 	 */
-	public byte[][][] generate(int x, int z, long seed) {
+	public byte[][][] generate(int x, int z, long seed) throws InterruptedException {
 		// get octave stuffs
 		float[][][] data1 = generate3DOctave(x, z, 127, seed, -1, 1);
+		checkInterrupted();
 		float[][][] data2 = generate3DOctave(x, z, 69, seed, -1, 1);
+		checkInterrupted();
 		float[][][] data3 = generate3DOctave(x, z, 29, seed, -1, 1);
+		checkInterrupted();
 		float[][][] data4 = generate3DOctave(x, z, 13, seed, -1, 1);
+		checkInterrupted();
 		
 		float[][] temperature = new float[Region.WIDTH][Region.WIDTH],
 				wetness = new float[Region.WIDTH][Region.WIDTH],
@@ -36,6 +43,8 @@ public class RegionGenerator {
 		byte[][][] cells = new byte[Region.WIDTH][Region.HEIGHT][Region.WIDTH];
 		
 		for (int i = 0; i < Region.WIDTH; ++i) {
+			checkInterrupted();
+			
 			for (int j = 0; j < Region.HEIGHT; ++j) {
 				for (int k = 0; k < Region.WIDTH; ++k) {
 					// add together to get value, check if value is greater than a given amount
@@ -71,6 +80,17 @@ public class RegionGenerator {
 		return cells;
 	}
 	
+	/**
+	 * Cancellation checkpoint for work done in worker threads. Throws an
+	 * InterruptedException (and clears the interrupted status) if the current
+	 * thread has been interrupted.
+	 * 
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	public static void checkInterrupted() throws InterruptedException {
+		if (Thread.interrupted()) throw new InterruptedException();
+	}
+	
 	/**
 	 * Returns a bias based on the given height. The bias value is added to the
 	 * noise data. To ensure that the bottom of a Region is solid and the top
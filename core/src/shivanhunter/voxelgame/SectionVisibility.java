@@ -0,0 +1,370 @@
+package shivanhunter.voxelgame;
+
+import java.util.Arrays;
+
+import com.badlogic.gdx.math.Frustum;
+import com.badlogic.gdx.math.MathUtils;
+
+/**
+ * Finds which sections of the Map may be visible from the camera, so that
+ * sections hidden behind terrain, like caves seen from the surface or the
+ * surface seen from inside a cave, are not rendered.
+ *
+ * When a section is meshed, its connections are found with
+ * findConnections(): for each pair of the section's six faces, whether any
+ * non-opaque cells connect the two faces inside the section. Each frame,
+ * search() walks through the sections breadth-first, starting from the
+ * camera's section. The search only leaves a section through a face
+ * connected to the face it entered through, never moves back towards the
+ * camera along any axis, and doesn't enter sections outside the camera's
+ * frustum. Every section it reaches may be visible, and every other section
+ * is hidden.
+ *
+ * The search covers the Regions within range of a center Region. Regions are
+ * given to it with add() after each clear(). Missing Regions, and sections
+ * which haven't been meshed yet, are treated as open air, so the search
+ * passes through them. None of this needs an OpenGL context.
+ */
+public class SectionVisibility {
+	/**
+	 * The faces of a section. The opposite face of face f is f^1.
+	 */
+	public static final int X_NEG = 0, X_POS = 1, Y_NEG = 2, Y_POS = 3, Z_NEG = 4, Z_POS = 5;
+	public static final int FACES = 6;
+
+	// offsets to the adjacent section across each face
+	private static final int[] FACE_X = { -1, 1, 0, 0, 0, 0 };
+	private static final int[] FACE_Y = { 0, 0, -1, 1, 0, 0 };
+	private static final int[] FACE_Z = { 0, 0, 0, 0, -1, 1 };
+
+	/**
+	 * Connections of a section with every face connected to every other
+	 * face. Connections are a bitmask with bit a*FACES+b set if faces a and b
+	 * are connected.
+	 */
+	public static final long ALL_CONNECTED = (1L << FACES*FACES) - 1;
+
+	// entry face of the camera's section, which may be left through any face
+	private static final byte NO_FACE = -1;
+
+	/*
+	 * Scratch arrays for finding connections, kept per thread since meshing
+	 * happens in several threads at once. Columns are ordered by x then z,
+	 * with bit y-bottom of each column for the cell at height y. The stack
+	 * holds runs of cells, each in one column, and each run is pushed at
+	 * most once, so it can never overflow.
+	 */
+	private static class Scratch {
+		final int[] open = new int[Region.WIDTH*Region.WIDTH];
+		final int[] visited = new int[Region.WIDTH*Region.WIDTH];
+		final int[] stackColumns = new int[Region.WIDTH*Region.WIDTH*Region.SECTION_HEIGHT];
+		final int[] stackRuns = new int[Region.WIDTH*Region.WIDTH*Region.SECTION_HEIGHT];
+	}
+
+	private static final ThreadLocal<Scratch> scratches = new ThreadLocal<Scratch>() {
+		@Override protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	// the search area: every Region within range of the center Region in x
+	// and z, ordered by x then z
+	private final int range, size;
+	private int centerX, centerZ;
+	private final Region[] regions;
+
+	// bitmask of the sections of each Region reached by the last search
+	private final int[] visibleSections;
+	private int sectionsVisible = 0;
+
+	/*
+	 * State of the search for each section, indexed by Region (in the same
+	 * order as regions) then section. Sections are only queued once per
+	 * search: reached holds the number of the last search to reach each
+	 * section, so it never has to be cleared. For each queued section, the
+	 * face it was entered through and the directions taken to reach it are
+	 * kept as well.
+	 */
+	private final int[] queue;
+	private final int[] reached;
+	private final byte[] entryFaces;
+	private final byte[] directions;
+	private int searches = 0;
+
+	/**
+	 * Creates a SectionVisibility covering every Region within range of the
+	 * center Region.
+	 *
+	 * @param range the square radius of the search area, in Regions
+	 */
+	public SectionVisibility(int range) {
+		this.range = range;
+		this.size = range*2 + 1;
+
+		regions = new Region[size*size];
+		visibleSections = new int[size*size];
+
+		queue = new int[size*size*Region.SECTIONS];
+		reached = new int[size*size*Region.SECTIONS];
+		entryFaces = new byte[size*size*Region.SECTIONS];
+		directions = new byte[size*size*Region.SECTIONS];
+	}
+
+	/**
+	 * Finds which faces of a section are connected to each other through
+	 * non-opaque cells inside the section. Runs of cells in each column are
+	 * flood filled from the snapshot's opacity bitsets. Sections that are
+	 * all air or all opaque don't need to be filled at all.
+	 *
+	 * @param blocks the snapshot of the section's Neighborhood
+	 * @param bottom the lowest height of the section
+	 * @return bitmask of the connected pairs of faces (see ALL_CONNECTED)
+	 */
+	public static long findConnections(NeighborhoodSnapshot blocks, int bottom) {
+		Scratch scratch = scratches.get();
+		int[] open = scratch.open;
+		int[] visited = scratch.visited;
+
+		int allCells = (int)((1L << Region.SECTION_HEIGHT) - 1);
+		boolean allOpen = true, allOpaque = true;
+
+		for (int x = 0; x < Region.WIDTH; ++x) {
+			for (int z = 0; z < Region.WIDTH; ++z) {
+				int column = x*Region.WIDTH + z;
+				open[column] = ~blocks.getOpaqueBits(x, z, bottom) & allCells;
+				allOpen &= open[column] == allCells;
+				allOpaque &= open[column] == 0;
+			}
+		}
+
+		if (allOpen) return ALL_CONNECTED;
+		if (allOpaque) return 0;
+
+		Arrays.fill(visited, 0);
+		long connections = 0;
+
+		for (int column = 0; column < open.length; ++column) {
+			int unvisited;
+			while ((unvisited = open[column] & ~visited[column]) != 0) {
+				int faces = fill(scratch, column, Integer.numberOfTrailingZeros(unvisited));
+
+				// every face the filled cells touch is connected to the others
+				for (int a = 0; a < FACES; ++a) {
+					if ((faces & (1 << a)) == 0) continue;
+					for (int b = 0; b < FACES; ++b) {
+						if ((faces & (1 << b)) != 0) connections |= 1L << (a*FACES + b);
+					}
+				}
+			}
+		}
+
+		return connections;
+	}
+
+	/**
+	 * Flood fills the non-opaque cells connected to one cell, marking them as
+	 * visited. Whole runs of cells in a column are filled at once, and each
+	 * run then pushes the runs it touches in the four adjacent columns.
+	 *
+	 * @param scratch the scratch arrays, with open filled in
+	 * @param column the column of the cell to start from
+	 * @param y the height of the cell to start from, relative to the section
+	 * @return bitmask of the faces of the section touched by the filled cells
+	 */
+	private static int fill(Scratch scratch, int column, int y) {
+		int[] open = scratch.open;
+		int[] visited = scratch.visited;
+		int[] stackColumns = scratch.stackColumns;
+		int[] stackRuns = scratch.stackRuns;
+
+		int top = 1 << (Region.SECTION_HEIGHT-1);
+		int faces = 0;
+
+		int run = findRun(open[column], y);
+		visited[column] |= run;
+		stackColumns[0] = column;
+		stackRuns[0] = run;
+		int stackSize = 1;
+
+		while (stackSize > 0) {
+			--stackSize;
+			column = stackColumns[stackSize];
+			run = stackRuns[stackSize];
+
+			int x = column / Region.WIDTH, z = column % Region.WIDTH;
+			if (x == 0) faces |= 1 << X_NEG;
+			if (x == Region.WIDTH-1) faces |= 1 << X_POS;
+			if (z == 0) faces |= 1 << Z_NEG;
+			if (z == Region.WIDTH-1) faces |= 1 << Z_POS;
+			if ((run & 1) != 0) faces |= 1 << Y_NEG;
+			if ((run & top) != 0) faces |= 1 << Y_POS;
+
+			for (int face = 0; face < FACES; ++face) {
+				if (FACE_Y[face] != 0) continue;
+
+				int nextX = x + FACE_X[face], nextZ = z + FACE_Z[face];
+				if (nextX < 0 || nextX >= Region.WIDTH || nextZ < 0 || nextZ >= Region.WIDTH) continue;
+				int next = nextX*Region.WIDTH + nextZ;
+
+				// push every unvisited run in the next column touching this run
+				int touching = open[next] & ~visited[next] & run;
+				while (touching != 0) {
+					int nextRun = findRun(open[next] & ~visited[next],
+							Integer.numberOfTrailingZeros(touching));
+					visited[next] |= nextRun;
+					touching &= ~nextRun;
+
+					stackColumns[stackSize] = next;
+					stackRuns[stackSize] = nextRun;
+					++stackSize;
+				}
+			}
+		}
+
+		return faces;
+	}
+
+	/**
+	 * Finds the run of consecutive set bits containing a given bit.
+	 *
+	 * @param bits the bits to search, which must include bit y
+	 * @param y the bit the run contains
+	 * @return bitmask of the run
+	 */
+	private static int findRun(int bits, int y) {
+		// count the set bits from y upwards and from y downwards
+		int up = Integer.numberOfTrailingZeros(~(bits >>> y));
+		int down = Integer.numberOfLeadingZeros(~(bits << (31 - y)));
+		return (int)((1L << (up + down - 1)) - 1) << (y - down + 1);
+	}
+
+	/**
+	 * Empties the search area and moves it to a new center Region.
+	 *
+	 * @param x the center Region's x coordinate
+	 * @param z the center Region's z coordinate
+	 */
+	public void clear(int x, int z) {
+		centerX = x;
+		centerZ = z;
+		Arrays.fill(regions, null);
+	}
+
+	/**
+	 * Adds a Region to the search area. Regions out of range of the center
+	 * Region are ignored.
+	 *
+	 * @param r the Region to add
+	 */
+	public void add(Region r) {
+		int slot = getSlot(r.getX(), r.getZ());
+		if (slot >= 0) regions[slot] = r;
+	}
+
+	/**
+	 * Searches for the sections which may be visible from a given camera
+	 * position. A camera above or below the world starts from the nearest
+	 * section, and a camera outside the search area from the nearest Region
+	 * in it.
+	 *
+	 * @param frustum the camera's frustum
+	 * @param x the camera's x position in blocks
+	 * @param y the camera's y position in blocks
+	 * @param z the camera's z position in blocks
+	 */
+	public void search(Frustum frustum, float x, float y, float z) {
+		Arrays.fill(visibleSections, 0);
+		sectionsVisible = 0;
+		++searches;
+
+		int startX = MathUtils.clamp(MathUtils.floor(x/Region.WIDTH) - centerX, -range, range);
+		int startZ = MathUtils.clamp(MathUtils.floor(z/Region.WIDTH) - centerZ, -range, range);
+		int startSection = MathUtils.clamp(MathUtils.floor(y/Region.SECTION_HEIGHT),
+				0, Region.SECTIONS-1);
+
+		int start = ((startX + range)*size + startZ + range)*Region.SECTIONS + startSection;
+		reached[start] = searches;
+		entryFaces[start] = NO_FACE;
+		directions[start] = 0;
+		queue[0] = start;
+		int head = 0, tail = 1;
+
+		while (head < tail) {
+			int index = queue[head++];
+			int slot = index / Region.SECTIONS, section = index % Region.SECTIONS;
+
+			visibleSections[slot] |= 1 << section;
+			++sectionsVisible;
+
+			Region r = regions[slot];
+			long connections = r == null ? ALL_CONNECTED : r.getConnections(section);
+			int entryFace = entryFaces[index], taken = directions[index];
+			int slotX = slot / size, slotZ = slot % size;
+
+			for (int face = 0; face < FACES; ++face) {
+				// never move back towards the camera
+				if ((taken & (1 << (face ^ 1))) != 0) continue;
+
+				// only leave through faces connected to the entry face
+				if (entryFace != NO_FACE &&
+						(connections & (1L << (entryFace*FACES + face))) == 0) continue;
+
+				int nextX = slotX + FACE_X[face], nextZ = slotZ + FACE_Z[face];
+				int nextSection = section + FACE_Y[face];
+				if (nextX < 0 || nextX >= size || nextZ < 0 || nextZ >= size ||
+						nextSection < 0 || nextSection >= Region.SECTIONS) continue;
+
+				int next = (nextX*size + nextZ)*Region.SECTIONS + nextSection;
+				if (reached[next] == searches) continue;
+
+				// sections outside the frustum are marked as reached too, so
+				// they're only tested once
+				reached[next] = searches;
+				if (!Region.isBoxInFrustum(frustum,
+						nextX - range + centerX, nextZ - range + centerZ,
+						nextSection*Region.SECTION_HEIGHT,
+						(nextSection+1)*Region.SECTION_HEIGHT)) continue;
+
+				entryFaces[next] = (byte)(face ^ 1);
+				directions[next] = (byte)(taken | (1 << face));
+				queue[tail++] = next;
+			}
+		}
+	}
+
+	/**
+	 * Gets the sections of a Region reached by the last search. Regions
+	 * outside the search area have no visible sections.
+	 *
+	 * @param r the Region to get the visible sections of
+	 * @return bitmask of the Region's visible sections
+	 */
+	public int getVisibleSections(Region r) {
+		int slot = getSlot(r.getX(), r.getZ());
+		if (slot < 0 || regions[slot] != r) return 0;
+		return visibleSections[slot];
+	}
+
+	/**
+	 * Gets the number of sections reached by the last search, including
+	 * sections of missing Regions.
+	 *
+	 * @return the number of visible sections
+	 */
+	public int getSectionsVisible() {
+		return sectionsVisible;
+	}
+
+	/**
+	 * Gets the index of a Region in the search area.
+	 *
+	 * @param x the Region's x coordinate
+	 * @param z the Region's z coordinate
+	 * @return the Region's index, or -1 if it is out of range
+	 */
+	private int getSlot(int x, int z) {
+		int slotX = x - centerX + range, slotZ = z - centerZ + range;
+		if (slotX < 0 || slotX >= size || slotZ < 0 || slotZ >= size) return -1;
+		return slotX*size + slotZ;
+	}
+}
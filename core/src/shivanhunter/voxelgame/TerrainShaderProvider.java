@@ -0,0 +1,93 @@
+package shivanhunter.voxelgame;
+
+import com.badlogic.gdx.graphics.g3d.Renderable;
+import com.badlogic.gdx.graphics.g3d.Shader;
+import com.badlogic.gdx.graphics.g3d.shaders.DefaultShader;
+import com.badlogic.gdx.graphics.g3d.utils.DefaultShaderProvider;
+
+/**
+ * Provides shaders for a ModelBatch which can render Region meshes using
+ * Region's packed vertex format, as well as anything else a
+ * DefaultShaderProvider can render.
+ *
+ * Packed meshes are rendered with LibGDX's DefaultShader, but with a vertex
+ * shader that declares the packed attribute instead of a_position and
+ * a_normal, and unpacks both at the start of main(). Everything else
+ * (lighting, fog, materials) works exactly as it does for other meshes.
+ */
+public class TerrainShaderProvider extends DefaultShaderProvider {
+	/*
+	 * GLSL to unpack the position and normal stored by Region.packPosition().
+	 * The packed value is an integer, so each component is recovered by
+	 * dividing and flooring (GLSL ES 1.0 has no integer or bitwise operations).
+	 * Normals are stored as the ordinal of VoxelModel.Axis: POS_X, NEG_X,
+	 * POS_Y, NEG_Y, POS_Z, NEG_Z.
+	 */
+	private static final String unpack =
+			"	float packed = a_packed;\n" +
+			"	float rest = floor((packed + 0.5) / " + (Region.WIDTH+1) + ".0);\n" +
+			"	a_position.x = packed - rest * " + (Region.WIDTH+1) + ".0;\n" +
+			"	packed = rest;\n" +
+			"	rest = floor((packed + 0.5) / " + (Region.WIDTH+1) + ".0);\n" +
+			"	a_position.z = packed - rest * " + (Region.WIDTH+1) + ".0;\n" +
+			"	packed = rest;\n" +
+			"	rest = floor((packed + 0.5) / " + (Region.HEIGHT+1) + ".0);\n" +
+			"	a_position.y = packed - rest * " + (Region.HEIGHT+1) + ".0;\n" +
+			"	float normalAxis = floor((rest + 0.5) / 2.0);\n" +
+			"	float normalSign = 1.0 - 2.0 * (rest - normalAxis * 2.0);\n" +
+			"	a_normal = normalSign * vec3(equal(vec3(normalAxis), vec3(0.0, 1.0, 2.0)));\n";
+
+	// the default vertex shader, modified to use the packed attribute. Only
+	// built once a packed mesh is rendered, see getVertexShader()
+	private static String vertexShader;
+
+	@Override protected Shader createShader(Renderable renderable) {
+		if (renderable.mesh.getVertexAttributes().getMask() != Region.packedAttributes.getMask()) {
+			return super.createShader(renderable);
+		}
+
+		// packed meshes have no normal attribute, but do have normals, so
+		// the normal code in the shader must be enabled by hand
+		String prefix = DefaultShader.createPrefix(renderable, config) + "#define normalFlag\n";
+		return new DefaultShader(renderable, config, prefix,
+				getVertexShader(), DefaultShader.getDefaultFragmentShader());
+	}
+
+	/**
+	 * Gets the vertex shader for packed meshes, modifying the default vertex
+	 * shader the first time it is needed.
+	 *
+	 * @return the vertex shader for packed meshes
+	 * @throws IllegalStateException if the default vertex shader doesn't
+	 *         have the lines to modify
+	 */
+	private static String getVertexShader() {
+		if (vertexShader == null) {
+			String shader = DefaultShader.getDefaultVertexShader();
+			shader = replace(shader, "attribute vec3 a_position;", "attribute float a_packed;\nvec3 a_position;");
+			shader = replace(shader, "attribute vec3 a_normal;", "vec3 a_normal;");
+			shader = replace(shader, "void main() {", "void main() {\n" + unpack);
+			vertexShader = shader;
+		}
+		return vertexShader;
+	}
+
+	/**
+	 * Replaces a line of a shader. If the line is missing, which happens if
+	 * LibGDX's default shader changes, this fails rather than quietly leaving
+	 * the shader unmodified, since the result wouldn't render packed meshes.
+	 *
+	 * @param shader the shader source
+	 * @param target the text to replace
+	 * @param replacement the text to replace it with
+	 * @return the modified shader source
+	 * @throws IllegalStateException if the shader doesn't contain the target
+	 */
+	private static String replace(String shader, String target, String replacement) {
+		if (!shader.contains(target)) {
+			throw new IllegalStateException("Default vertex shader has no \"" + target +
+					"\", can't modify it for packed vertices");
+		}
+		return shader.replace(target, replacement);
+	}
+}
@@ -0,0 +1,112 @@
+package shivanhunter.voxelgame;
+
+/**
+ * A growable array of primitive floats used to build mesh vertices without
+ * boxing every float into a list.
+ *
+ * Each thread has its own VertexBuilder, retrieved using get(), which is
+ * reused for every mesh that thread builds. Its internal array only grows,
+ * so once a worker thread has built a few meshes, meshing allocates nothing
+ * but the final, right-sized arrays returned by toArray().
+ */
+public class VertexBuilder {
+	// one builder per thread, since meshing happens in several threads at once
+	private static final ThreadLocal<VertexBuilder> builders = new ThreadLocal<VertexBuilder>() {
+		@Override protected VertexBuilder initialValue() {
+			return new VertexBuilder();
+		}
+	};
+
+	private float[] items = new float[4096];
+	private int size = 0;
+
+	/**
+	 * Gets the VertexBuilder for the current thread, emptied and ready to
+	 * build a new mesh.
+	 *
+	 * @return the current thread's VertexBuilder
+	 */
+	public static VertexBuilder get() {
+		VertexBuilder builder = builders.get();
+		builder.size = 0;
+		return builder;
+	}
+
+	/**
+	 * Adds a vertex consisting of a position, a color and a normal.
+	 *
+	 * @param x the x coordinate of the vertex
+	 * @param y the y coordinate of the vertex
+	 * @param z the z coordinate of the vertex
+	 * @param r the red channel of the vertex color
+	 * @param g the green channel of the vertex color
+	 * @param b the blue channel of the vertex color
+	 * @param nx the x component of the vertex normal
+	 * @param ny the y component of the vertex normal
+	 * @param nz the z component of the vertex normal
+	 */
+	public void addVertex(float x, float y, float z,
+			float r, float g, float b,
+			float nx, float ny, float nz) {
+		ensureCapacity(9);
+
+		items[size++] = x;
+		items[size++] = y;
+		items[size++] = z;
+		items[size++] = r;
+		items[size++] = g;
+		items[size++] = b;
+		items[size++] = nx;
+		items[size++] = ny;
+		items[size++] = nz;
+	}
+
+	/**
+	 * Adds a vertex in Region's packed format, consisting of a packed
+	 * position and normal, and a packed color.
+	 *
+	 * @param position the packed position and normal of the vertex
+	 * @param color the packed color of the vertex
+	 */
+	public void addPackedVertex(float position, float color) {
+		ensureCapacity(2);
+
+		items[size++] = position;
+		items[size++] = color;
+	}
+
+	/**
+	 * Gets the number of floats added since this builder was last emptied.
+	 *
+	 * @return the number of floats in this builder
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copies the floats in this builder into a new array of exactly the
+	 * right size.
+	 *
+	 * @return a new array containing the floats in this builder
+	 */
+	public float[] toArray() {
+		float[] array = new float[size];
+		System.arraycopy(items, 0, array, 0, size);
+		return array;
+	}
+
+	/**
+	 * Grows the internal array, if necessary, so that the given number of
+	 * floats can be added.
+	 *
+	 * @param count the number of floats about to be added
+	 */
+	private void ensureCapacity(int count) {
+		if (size + count <= items.length) return;
+
+		float[] newItems = new float[Math.max(items.length*2, size + count)];
+		System.arraycopy(items, 0, newItems, 0, size);
+		items = newItems;
+	}
+}
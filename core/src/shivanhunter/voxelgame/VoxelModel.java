@@ -5,8 +5,6 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 import com.badlogic.gdx.graphics.Color;
-import com.badlogic.gdx.graphics.GL20;
-import com.badlogic.gdx.graphics.Mesh;
 import com.badlogic.gdx.graphics.VertexAttribute;
 import com.badlogic.gdx.graphics.VertexAttributes;
 import com.badlogic.gdx.graphics.g3d.Material;
@@ -51,13 +49,10 @@ public class VoxelModel {
 	
 	// the model representing the voxel data
 	private Model model;
+	
+	// the vertices of the model's mesh, in the format given by attributes
+	private float[] vertices;
 
-	/* 
-	 * Constants: number of verts and indices in a quad, number of floats
-	 * in a vertex
-	 */
-    private static final int VERTS = 4, INDS = 6, FLOATS = 9;
-    
     /*
      * Data in a vertex: 3 position floats, 3 color floats, 3 normal floats
      */
@@ -151,8 +146,8 @@ public class VoxelModel {
 	 * the size, root location or any blockdata is changed.
 	 */
 	private void updateMesh() {
-        // temp list of vertices
-        ArrayList<Float> verticesList = new ArrayList<Float>();
+        // temp list of vertices, reused by every mesh built in this thread
+        VertexBuilder verticesList = VertexBuilder.get();
     	float r, g, b;
         
         for (int i = 0; i < size; ++i) {
@@ -233,43 +228,13 @@ public class VoxelModel {
             }
         }
         
-        int numQuads = verticesList.size()/FLOATS/VERTS;
-
-        // create a mesh with room for the generated polygons
-        Mesh mesh = new Mesh(true, numQuads*VERTS, numQuads*INDS, attributes);
-        
-        // create indices array
-        short[] indices = new short[numQuads*INDS];
-        
-        // each polygon is 6 indices for each 4 vertices: two triangles
-        // for each quad
-        for (int i = 0; i < numQuads; ++i) {
-        	indices[i*INDS + 0] = (short)(i*VERTS + 0);
-        	indices[i*INDS + 1] = (short)(i*VERTS + 1);
-        	indices[i*INDS + 2] = (short)(i*VERTS + 2);
-        	
-        	indices[i*INDS + 3] = (short)(i*VERTS + 2);
-        	indices[i*INDS + 4] = (short)(i*VERTS + 3);
-        	indices[i*INDS + 5] = (short)(i*VERTS + 0);
-        }
-        
-        // convert list of verts to float[]
-        float[] vertices = new float[numQuads*FLOATS*VERTS];
-        
-        // a list of Float can't be converted directly to a float[] because java sucks
-        // so iterate through
-        for (int i = 0; i < verticesList.size(); ++i) {
-        	vertices[i] = verticesList.get(i);
-        }
-
-        // put generated lists in mesh
-		mesh.setVertices(vertices);
-		mesh.setIndices(indices);
+        // copy verts into a right-sized float[]
+        vertices = verticesList.toArray();
 		
-		// build a LibGDX Model using mesh and material
+		// build a LibGDX Model using as many meshes as the model needs
 		ModelBuilder builder = new ModelBuilder();
 		builder.begin();
-		builder.part("", mesh, GL20.GL_TRIANGLES, mat);
+		QuadIndices.addParts(builder, vertices, attributes, mat);
 		model = builder.end();
 	}
 	
@@ -376,7 +341,7 @@ public class VoxelModel {
 	/**
 	 * Adds a quad to the VertexList.
 	 * 
-	 * @param vertexList the list under construction
+	 * @param vertexList the vertices under construction
 	 * @param x1 the x coordinate of the first vertex in counterclockwise order
 	 * @param y1 the y coordinate of the first vertex in counterclockwise order
 	 * @param z1 the z coordinate of the first vertex in counterclockwise order
@@ -395,7 +360,7 @@ public class VoxelModel {
 	 * @param axis the axis of the quad normal
 	 */
 	public void appendQuad(
-			ArrayList<Float> vertexList, 
+			VertexBuilder vertexList, 
 			float x1, float y1, float z1,
 			float x2, float y2, float z2,
 			float x3, float y3, float z3,
@@ -447,58 +412,33 @@ public class VoxelModel {
 		
 		// add the first vertex first if quad is not flipped
 		if (!flipped) {
-			vertexList.add(x1);
-			vertexList.add(y1);
-			vertexList.add(z1);
-			vertexList.add(r*ambientOcclusion1);
-			vertexList.add(g*ambientOcclusion1);
-			vertexList.add(b*ambientOcclusion1);
-			vertexList.add(nx);
-			vertexList.add(ny);
-			vertexList.add(nz);
+			vertexList.addVertex(
+					x1, y1, z1,
+					r*ambientOcclusion1, g*ambientOcclusion1, b*ambientOcclusion1,
+					nx, ny, nz);
 		}
 		
-		vertexList.add(x2);
-		vertexList.add(y2);
-		vertexList.add(z2);
-		vertexList.add(r*ambientOcclusion2);
-		vertexList.add(g*ambientOcclusion2);
-		vertexList.add(b*ambientOcclusion2);
-		vertexList.add(nx);
-		vertexList.add(ny);
-		vertexList.add(nz);
+		vertexList.addVertex(
+				x2, y2, z2,
+				r*ambientOcclusion2, g*ambientOcclusion2, b*ambientOcclusion2,
+				nx, ny, nz);
 		
-		vertexList.add(x3);
-		vertexList.add(y3);
-		vertexList.add(z3);
-		vertexList.add(r*ambientOcclusion3);
-		vertexList.add(g*ambientOcclusion3);
-		vertexList.add(b*ambientOcclusion3);
-		vertexList.add(nx);
-		vertexList.add(ny);
-		vertexList.add(nz);
+		vertexList.addVertex(
+				x3, y3, z3,
+				r*ambientOcclusion3, g*ambientOcclusion3, b*ambientOcclusion3,
+				nx, ny, nz);
 		
-		vertexList.add(x4);
-		vertexList.add(y4);
-		vertexList.add(z4);
-		vertexList.add(r*ambientOcclusion4);
-		vertexList.add(g*ambientOcclusion4);
-		vertexList.add(b*ambientOcclusion4);
-		vertexList.add(nx);
-		vertexList.add(ny);
-		vertexList.add(nz);
+		vertexList.addVertex(
+				x4, y4, z4,
+				r*ambientOcclusion4, g*ambientOcclusion4, b*ambientOcclusion4,
+				nx, ny, nz);
 		
 		// add first vertex last if quad is flipped
 		if (flipped) {
-			vertexList.add(x1);
-			vertexList.add(y1);
-			vertexList.add(z1);
-			vertexList.add(r*ambientOcclusion1);
-			vertexList.add(g*ambientOcclusion1);
-			vertexList.add(b*ambientOcclusion1);
-			vertexList.add(nx);
-			vertexList.add(ny);
-			vertexList.add(nz);
+			vertexList.addVertex(
+					x1, y1, z1,
+					r*ambientOcclusion1, g*ambientOcclusion1, b*ambientOcclusion1,
+					nx, ny, nz);
 		}
 	}
 	
@@ -510,6 +450,15 @@ public class VoxelModel {
 		return this.model;
 	}
 	
+	/**
+	 * Returns the vertices of this VoxelModel's mesh, four per quad, in the
+	 * format given by attributes. The array must not be modified.
+	 * @return the vertices of this VoxelModel's mesh
+	 */
+	public float[] getVertices() {
+		return vertices;
+	}
+	
 	/**
 	 * Returns the size of the model.
 	 * @return the size of the model
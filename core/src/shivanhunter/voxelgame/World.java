@@ -1,6 +1,6 @@
 package shivanhunter.voxelgame;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.badlogic.gdx.ApplicationListener;
@@ -15,7 +15,6 @@ import com.badlogic.gdx.graphics.g3d.ModelBatch;
 import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
 import com.badlogic.gdx.graphics.g3d.environment.DirectionalLight;
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
 
 public class World implements ApplicationListener {
@@ -32,17 +31,23 @@ public class World implements ApplicationListener {
 	
 	private int renderDistance = 18;
 	private Map map;
-	private List<Mob> mobs = new LinkedList<Mob>();
+	private List<Mob> mobs = new ArrayList<Mob>();
 	
 	private Player player;
 	
 	private Color fogColor;
 	
+	// debug display text, rebuilt in place every frame
+	private final StringBuilder debugText = new StringBuilder();
+	
 	@Override public void create() {
 		Region.loadDecoModels();
 		
 		fogColor = new Color(.0f, .25f, .75f, 1);
-		modelBatch = new ModelBatch();
+		// the modified shader is only installed for packed meshes, which
+		// aren't the default (see Region.PACKED_VERTICES)
+		modelBatch = Region.PACKED_VERTICES ?
+				new ModelBatch(new TerrainShaderProvider()) : new ModelBatch();
 		debugBatch = new SpriteBatch();
 		font = new BitmapFont();
 		
@@ -120,15 +125,17 @@ public class World implements ApplicationListener {
 	}
 	
 	@Override public void render() {
-		MapCoord playerRegion = Region.getRegionAt(player.getPosition().x, player.getPosition().z);
-		map.setPlayerRegion((int)playerRegion.x, (int)playerRegion.z);
+		map.setPlayerRegion(
+				Region.getRegionAt(player.getPosition().x),
+				Region.getRegionAt(player.getPosition().z));
 		
 		// go go gadget variable timestep
 		float deltaTime = MathUtils.clamp(Gdx.graphics.getDeltaTime(), 0, .1f);
 		//System.out.println(1/deltaTime);
 		
-        for (Mob m : mobs) {
-			m.update(deltaTime);
+        // indexed loops, so the frame doesn't allocate any Iterators
+        for (int i = 0; i < mobs.size(); ++i) {
+			mobs.get(i).update(deltaTime);
         }
 		
         // align camera with player mob
@@ -145,6 +152,8 @@ public class World implements ApplicationListener {
 		cam.up.set(Vector3.Y);
 		
 		cam.update();
+		
+		map.setPlayerMotion(player.getVelocity(), cam.direction);
 	
 		
         //Gdx.gl.glViewport(0, 0, Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
@@ -153,31 +162,22 @@ public class World implements ApplicationListener {
  
         modelBatch.begin(cam);
         
-        int playerX = MathUtils.floor(player.getPosition().x/Region.WIDTH),
-        	playerZ = MathUtils.floor(player.getPosition().z/Region.WIDTH);
-        
-        for (int x = playerX-renderDistance; x <= playerX+renderDistance; ++x) {
-        	for (int z = playerZ-renderDistance; z <= playerZ+renderDistance; ++z) {
-        		if (Vector2.dst(x, z, playerX, playerZ) <= renderDistance) {
-        	        map.get(x, z);
-        		}
-        	}
-        }
-        
+        // the Map culls Regions outside renderDistance and the camera's view,
+        // and sections hidden behind terrain
         map.render(environment, modelBatch);
         
-        for (Mob m : mobs) {
-        	m.render(environment, modelBatch);
+        for (int i = 0; i < mobs.size(); ++i) {
+        	mobs.get(i).render(environment, modelBatch);
         }
         
         modelBatch.end();
         
-        String debugText = 
-        		"FPS: " + (int)(1/deltaTime) + "\n\n" +
-        		"X: " + player.getPosition().x + "\n" +
-        		"Y: " + player.getPosition().y + "\n" +
-        		"Z: " + player.getPosition().z + "\n\n" +
-                map.getDebugInfo();
+        debugText.setLength(0);
+        debugText.append("FPS: ").append((int)(1/deltaTime)).append("\n\n")
+        		.append("X: ").append(player.getPosition().x).append('\n')
+        		.append("Y: ").append(player.getPosition().y).append('\n')
+        		.append("Z: ").append(player.getPosition().z).append("\n\n");
+        map.appendDebugInfo(debugText);
         
 		debugBatch.begin();
 		font.drawMultiLine(debugBatch, debugText, 16, Gdx.graphics.getHeight() - 16);
@@ -188,6 +188,7 @@ public class World implements ApplicationListener {
 	 * Utility stuff
 	 */
 	@Override public void dispose() {
+		map.dispose();
 		modelBatch.dispose();
 	}
 	